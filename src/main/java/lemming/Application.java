@@ -43,6 +43,7 @@ public class Application extends ResourceConfig {
         EncodingFilter.enableFor(posResourceConfig, GZipEncoder.class);
 
         packages("lemming.context");
+        packages("lemming.job");
         packages("lemming.lemma");
         packages("lemming.pos");
         // disable buffering
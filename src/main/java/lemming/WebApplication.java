@@ -3,11 +3,17 @@ package lemming;
 import lemming.auth.SignInPage;
 import lemming.auth.WebSession;
 import lemming.context.*;
+import lemming.context.inbound.MatchHelper;
+import lemming.context.inbound.RelocationIndex;
+import lemming.context.inbound.VerificationCache;
+import lemming.data.ChangeCursor;
+import lemming.job.JobRegistry;
 import lemming.lemma.LemmaEditPage;
 import lemming.lemma.LemmaIndexPage;
 import lemming.lemmatisation.LemmatisationPage;
 import lemming.pos.PosEditPage;
 import lemming.pos.PosIndexPage;
+import lemming.resource.ExportCache;
 import lemming.resource.ResourcePage;
 import lemming.ui.page.AccessDeniedPage;
 import lemming.ui.page.PageExpiredPage;
@@ -22,8 +28,11 @@ import org.apache.wicket.authroles.authorization.strategies.role.annotations.Ann
 import org.apache.wicket.markup.html.SecurePackageResourceGuard;
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.settings.ExceptionSettings;
+import org.apache.wicket.util.lang.Bytes;
 
-import java.util.List;
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.time.Duration;
 import java.util.logging.Logger;
 
 /**
@@ -33,6 +42,11 @@ public class WebApplication extends AuthenticatedWebApplication {
 
     private Logger logger = Logger.getLogger(WebApplication.class.getName());
 
+    /**
+     * Maximum size of uploads.
+     */
+    private Bytes maxUploadSize = Bytes.megabytes(512);
+
     /**
      * Provides a custom initialization for this app.
      */
@@ -74,6 +88,32 @@ public class WebApplication extends AuthenticatedWebApplication {
             getMarkupSettings().setStripWicketTags(true);
         }
 
+        if (getInitParameter("lemming.matchParallelism") != null) {
+            MatchHelper.setParallelism(Integer.parseInt(getInitParameter("lemming.matchParallelism")));
+        }
+
+        if (getInitParameter("lemming.matchVerificationParallelism") != null) {
+            MatchHelper.setVerificationParallelism(Integer.parseInt(
+                    getInitParameter("lemming.matchVerificationParallelism")));
+        }
+
+        if (getInitParameter("lemming.matchStrategy") != null) {
+            MatchHelper.setDefaultStrategy(MatchHelper.Strategy.valueOf(getInitParameter("lemming.matchStrategy")));
+        }
+
+        if (getInitParameter("lemming.maxUploadSize") != null) {
+            maxUploadSize = Bytes.megabytes(Long.parseLong(getInitParameter("lemming.maxUploadSize")));
+        }
+
+        if (getInitParameter("lemming.exportCursorOverlap") != null) {
+            ChangeCursor.setOverlap(Duration.ofMinutes(Long.parseLong(
+                    getInitParameter("lemming.exportCursorOverlap"))));
+        }
+
+        if (getInitParameter("lemming.jobConcurrency") != null) {
+            JobRegistry.setConcurrency(Integer.parseInt(getInitParameter("lemming.jobConcurrency")));
+        }
+
         mountPage("/AccessDeniedPage", AccessDeniedPage.class);
         mountPage("/PageExpiredPage", PageExpiredPage.class);
         mountPage("/SignInPage", SignInPage.class);
@@ -88,13 +128,35 @@ public class WebApplication extends AuthenticatedWebApplication {
         mountPage("/resource/ResourcePage", ResourcePage.class);
         mountPage("/user/UserEditPage", UserEditPage.class);
 
-        // TODO: remove
-        logger.info("Updating all contexts...");
-        ContextDao contextDao = new ContextDao();
-        List<Context> allContexts = contextDao.getAll();
+        // missing or outdated hashes are repaired in the background while requests are served
+        File temporaryDirectory = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+        JobRegistry.start(new ContextHashJob((temporaryDirectory != null) ?
+                new File(temporaryDirectory, "context-hash.checkpoint") : null));
+        RelocationIndex.rebuild();
+        ExportCache.start((temporaryDirectory != null) ? new File(temporaryDirectory, "exports") : null);
+    }
+
+    /**
+     * Releases resources of this app.
+     */
+    @Override
+    protected void onDestroy() {
+        VerificationCache.shutdown();
+        RelocationIndex.shutdown();
+        MatchHelper.shutdown();
+        JobRegistry.shutdown();
+        ContextImportPipeline.shutdown();
+        ExportCache.shutdown();
+        super.onDestroy();
+    }
 
-        contextDao.batchUpdate(allContexts);
-        logger.info("Done.");
+    /**
+     * Returns the maximum size of uploads.
+     *
+     * @return A size.
+     */
+    public Bytes getMaxUploadSize() {
+        return maxUploadSize;
     }
 
     /**
@@ -6,6 +6,7 @@ import lemming.data.HashEntityListener;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -36,6 +37,15 @@ public abstract class BaseContext extends DatedEntity implements Serializable {
     @JsonIgnore
     private String hash;
 
+    /**
+     * The first 64 bits of the hash, which serve as a compact key for matching.
+     *
+     * @see HashEntityListener#getFingerprint(String)
+     */
+    @Column(name = "fingerprint")
+    @JsonIgnore
+    private Long fingerprint;
+
     /**
      * A UUID used to distinguish contexts.
      */
@@ -106,6 +116,12 @@ public abstract class BaseContext extends DatedEntity implements Serializable {
     @Column(name = "speech", length = 30, nullable = false)
     private SpeechType.Type speech = SpeechType.Type.NONE;
 
+    /**
+     * Text elements from which the current hash was computed or loaded, or null if the hash is unknown.
+     */
+    @Transient
+    private String[] hashedTexts;
+
     /**
      * Creates an instance of a context.
      */
@@ -168,10 +184,47 @@ public abstract class BaseContext extends DatedEntity implements Serializable {
     }
 
     /**
-     * Sets the hash of a context.
+     * Sets the hash of a context and its fingerprint.
      */
     public void setHash(String hash) {
         this.hash = hash;
+        this.fingerprint = HashEntityListener.getFingerprint(hash);
+    }
+
+    /**
+     * Returns the fingerprint of a context.
+     *
+     * @return The first 64 bits of the hash, or null if there is no hash.
+     */
+    @JsonIgnore
+    public Long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Checks if the hash of a context is missing or was computed from other text elements.
+     *
+     * @return True if the hash must be computed; false otherwise.
+     */
+    @JsonIgnore
+    public boolean isHashDirty() {
+        return hash == null || hash.isEmpty() || hashedTexts == null || !Arrays.equals(hashedTexts, getHashedTexts());
+    }
+
+    /**
+     * Marks the hash of a context as computed from its current text elements.
+     */
+    public void markHashClean() {
+        hashedTexts = getHashedTexts();
+    }
+
+    /**
+     * Returns the text elements of a context which are hashed.
+     *
+     * @return An array of text elements.
+     */
+    private String[] getHashedTexts() {
+        return new String[]{preceding, initPunctuation, keyword, endPunctuation, following};
     }
 
     /**
@@ -19,7 +19,8 @@ import java.util.UUID;
 @SelectBeforeUpdate
 @OptimisticLocking(type = OptimisticLockType.VERSION)
 @Table(name = "comment", indexes = {
-        @Index(columnList = "uuid", unique = true)})
+        @Index(columnList = "uuid", unique = true),
+        @Index(columnList = "modified")})
 public class Comment extends DatedEntity implements Comparable<Comment>, Serializable {
     /**
      * Determines if a deserialized file is compatible with this class.
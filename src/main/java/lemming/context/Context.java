@@ -26,6 +26,10 @@ import java.util.SortedSet;
 @OptimisticLocking(type = OptimisticLockType.VERSION)
 @Table(name = "context", indexes = {
         @Index(columnList = "uuid", unique = true),
+        @Index(columnList = "fingerprint"),
+        @Index(columnList = "location, fingerprint"),
+        @Index(columnList = "keyword, location"),
+        @Index(columnList = "modified"),
         @Index(columnList = "keyword, preceding, following, location, number, pos_string, lemma_string, interesting")})
 public class Context extends BaseContext implements Comparable<Context>, Serializable {
     /**
@@ -2,7 +2,7 @@ package lemming.context;
 
 import lemming.data.EntityManagerListener;
 import lemming.data.GenericDao;
-import lemming.data.HashEntityListener;
+import lemming.data.Tombstone;
 import lemming.lemma.Lemma;
 import lemming.pos.Pos;
 import org.hibernate.StaleObjectStateException;
@@ -24,6 +24,14 @@ public class ContextDao extends GenericDao<Context> implements IContextDao {
         super();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Tombstone.Type getTombstoneType() {
+        return Tombstone.Type.CONTEXT;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -281,41 +289,64 @@ public class ContextDao extends GenericDao<Context> implements IContextDao {
     }
 
     /**
-     * Force update of hashes for all contexts.
-     * TODO: Remove.
+     * {@inheritDoc}
      *
      * @throws RuntimeException
      */
-    public void batchUpdate(List<Context> contexts) throws RuntimeException {
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Object[]> findHashRows(Integer afterId, Integer limit) throws RuntimeException {
         EntityManager entityManager = EntityManagerListener.createEntityManager();
         EntityTransaction transaction = null;
-        Context currentContext = null;
-        Integer batchSize = 50;
-        Integer counter = 0;
 
         try {
             transaction = entityManager.getTransaction();
             transaction.begin();
+            // plain columns instead of entities, so that no lemma, part of speech or comments are loaded
+            List<Object[]> rows = entityManager.createNativeQuery("SELECT id, version, preceding, " +
+                    "init_punctuation, keyword, end_punctuation, following, hash, fingerprint FROM context " +
+                    "WHERE id > :afterId ORDER BY id LIMIT :limit")
+                    .setParameter("afterId", afterId).setParameter("limit", limit).getResultList();
+            transaction.commit();
+            return rows;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
 
-            for (Context context : contexts) {
-                currentContext = context;
-                Context mergedContext = entityManager.merge(currentContext);
-                refreshForeignKeyStrings(mergedContext);
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
 
-                if (mergedContext.getHash() == null || mergedContext.getHash().length() == 0) {
-                    new HashEntityListener().onPreUpdate(mergedContext);
-                }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
 
-                entityManager.merge(mergedContext);
-                counter++;
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    public int updateHashes(List<Object[]> rows) throws RuntimeException {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        EntityTransaction transaction = null;
+        int count = 0;
 
-                if (counter % batchSize == 0) {
-                    entityManager.flush();
-                    entityManager.clear();
-                }
+        try {
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+
+            for (Object[] row : rows) {
+                // a context changed in the meantime has been hashed when it was saved
+                count += entityManager.createNativeQuery("UPDATE context SET hash = :hash, " +
+                        "fingerprint = :fingerprint WHERE id = :id AND version = :version")
+                        .setParameter("hash", row[2]).setParameter("fingerprint", row[3])
+                        .setParameter("id", row[0]).setParameter("version", row[1]).executeUpdate();
             }
 
             transaction.commit();
+            return count;
         } catch (RuntimeException e) {
             e.printStackTrace();
 
@@ -323,13 +354,7 @@ public class ContextDao extends GenericDao<Context> implements IContextDao {
                 transaction.rollback();
             }
 
-            if (e instanceof StaleObjectStateException) {
-                panicOnSaveLockingError(currentContext, e);
-            } else if (e instanceof UnresolvableObjectException) {
-                panicOnSaveUnresolvableObjectError(currentContext, e);
-            } else {
-                throw e;
-            }
+            throw e;
         } finally {
             entityManager.close();
         }
@@ -457,6 +482,44 @@ public class ContextDao extends GenericDao<Context> implements IContextDao {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    public List<Context> findByIds(List<Integer> ids) {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        EntityTransaction transaction = null;
+        Integer batchSize = 1000;
+
+        try {
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+            TypedQuery<Context> query = entityManager.createQuery("SELECT c FROM Context c LEFT JOIN FETCH c.lemma " +
+                    "LEFT JOIN FETCH c.pos WHERE c.id IN (:ids)", Context.class);
+            List<Context> contextList = new ArrayList<>();
+
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                List<Integer> batch = ids.subList(i, Math.min(i + batchSize, ids.size()));
+                contextList.addAll(query.setParameter("ids", batch).getResultList());
+            }
+
+            transaction.commit();
+            return contextList;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -626,4 +689,109 @@ public class ContextDao extends GenericDao<Context> implements IContextDao {
             entityManager.close();
         }
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<Long, Integer>> getIdsByFingerprint(Collection<String> locations) {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        EntityTransaction transaction = null;
+        List<String> locationList = new ArrayList<>(locations);
+        Map<String, Map<Long, Integer>> locationIds = new HashMap<>();
+        Integer batchSize = 1000;
+
+        try {
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+
+            for (int i = 0; i < locationList.size(); i += batchSize) {
+                List<String> batch = locationList.subList(i, Math.min(i + batchSize, locationList.size()));
+                // answered by the location and fingerprint index alone
+                List<Object[]> rows = entityManager.createNativeQuery("SELECT location, fingerprint, id FROM context " +
+                        "WHERE location IN (:locations) AND fingerprint IS NOT NULL")
+                        .setParameter("locations", batch).getResultList();
+
+                for (Object[] row : rows) {
+                    Map<Long, Integer> ids = locationIds.computeIfAbsent((String) row[0], location -> new HashMap<>());
+                    Long fingerprint = ((Number) row[1]).longValue();
+                    Integer id = ((Number) row[2]).intValue();
+
+                    if (ids.containsKey(fingerprint)) {
+                        ids.put(fingerprint, null);
+                    } else {
+                        ids.put(fingerprint, id);
+                    }
+                }
+            }
+
+            transaction.commit();
+            return locationIds;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    public int fillFingerprints(int batchSize) throws RuntimeException {
+        int count = 0;
+
+        for (String table : new String[]{"context", "inbound_context"}) {
+            Number lastId = 0;
+
+            while (lastId != null) {
+                EntityManager entityManager = EntityManagerListener.createEntityManager();
+                EntityTransaction transaction = null;
+
+                try {
+                    transaction = entityManager.getTransaction();
+                    transaction.begin();
+                    // pages by ID range, so that rows which can’t be filled are read only once
+                    Number afterId = lastId;
+                    lastId = (Number) entityManager.createNativeQuery("SELECT MAX(id) FROM (SELECT id FROM " +
+                            table + " WHERE id > :afterId ORDER BY id LIMIT :limit) page")
+                            .setParameter("afterId", afterId).setParameter("limit", batchSize).getSingleResult();
+
+                    if (lastId != null) {
+                        // same value as HashEntityListener.getFingerprint()
+                        count += entityManager.createNativeQuery("UPDATE " + table + " " +
+                                "SET fingerprint = CAST(CONV(LEFT(hash, 16), 16, -10) AS SIGNED) " +
+                                "WHERE id > :afterId AND id <= :lastId AND fingerprint IS NULL " +
+                                "AND LENGTH(hash) >= 16")
+                                .setParameter("afterId", afterId).setParameter("lastId", lastId).executeUpdate();
+                    }
+
+                    transaction.commit();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+
+                    if (transaction != null && transaction.isActive()) {
+                        transaction.rollback();
+                    }
+
+                    throw e;
+                } finally {
+                    entityManager.close();
+                }
+            }
+        }
+
+        return count;
+    }
 }
@@ -0,0 +1,563 @@
+package lemming.context;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lemming.data.ChangeCursor;
+import lemming.data.EntityManagerListener;
+import lemming.data.Tombstone;
+import lemming.resource.KwicWriter;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.query.NativeQuery;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports all contexts in order of keyword and location.
+ * <p>
+ * IDs of contexts are read by one forward-only scroll. Contexts are loaded in chunks of IDs together with their
+ * parts of speech, comments and lemmas, so that an export takes one query per chunk instead of one per keyword.
+ * <p>
+ * By default, the scroll streams over a separate connection and contexts are loaded while it is read. A snapshot
+ * export runs in one read-only, repeatable-read transaction on a single connection instead, so that it isn’t affected
+ * by concurrent edits. Because a streamed result blocks its connection, a snapshot export reads IDs in pages by
+ * keyset instead, and loads the contexts of a page before the next page is read. The transaction is begun when an
+ * export starts writing and ended when it stops, so an exporter whose output is never written holds no connection.
+ * A caller which needs the snapshot timestamp before writing begins the export itself, and must then close the
+ * exporter also if its output is never written. An exporter is used for one export.
+ */
+public class ContextExporter implements Closeable {
+    /**
+     * Number of contexts loaded at once.
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Key of contexts in export order. The ID keeps the order of contexts with equal keyword and location stable.
+     */
+    private static final String[] CONTEXT_KEY = {"keyword", "location", "id"};
+
+    /**
+     * Key of tombstones in order of deletion.
+     */
+    private static final String[] TOMBSTONE_KEY = {"deleted", "id"};
+
+    /**
+     * Handles a scrolled row.
+     */
+    @FunctionalInterface
+    private interface ScrollHandler {
+        /**
+         * Handles a scrolled row.
+         *
+         * @param row values of a row
+         * @throws IOException if output can’t be written
+         */
+        void handle(Object[] row) throws IOException;
+    }
+
+    /**
+     * True if the export reads a consistent snapshot.
+     */
+    private final boolean snapshot;
+
+    /**
+     * Entity manager which loads contexts, or null before an export is started.
+     */
+    private EntityManager entityManager;
+
+    /**
+     * Transaction of the entity manager.
+     */
+    private EntityTransaction transaction;
+
+    /**
+     * Time of the snapshot in milliseconds, or null.
+     */
+    private Long snapshotTime;
+
+    /**
+     * Weight string of the keyword of the current KWIC sublist, or null before the first sublist.
+     */
+    private byte[] subListWeight;
+
+    /**
+     * Creates a context exporter without snapshot.
+     */
+    public ContextExporter() {
+        this(false);
+    }
+
+    /**
+     * Creates a context exporter.
+     *
+     * @param snapshot true to read a consistent snapshot on a single connection
+     */
+    public ContextExporter(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Creates the entity manager and begins the transaction of an export, unless the export is already begun. A
+     * snapshot export fixes its snapshot.
+     */
+    public void begin() {
+        if (entityManager != null) {
+            return;
+        }
+
+        entityManager = EntityManagerListener.createEntityManager();
+        transaction = entityManager.getTransaction();
+        transaction.begin();
+
+        if (snapshot) {
+            // applies only to the transaction started by the next statement
+            entityManager.createNativeQuery("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY")
+                    .executeUpdate();
+            // the subquery is the first consistent read, which fixes the snapshot
+            Object[] row = (Object[]) entityManager.createNativeQuery("SELECT UNIX_TIMESTAMP(NOW(3)), " +
+                    "(SELECT COUNT(*) FROM context WHERE id = 0)").getSingleResult();
+            snapshotTime = new BigDecimal(row[0].toString()).movePointRight(3).longValue();
+        }
+    }
+
+    /**
+     * Returns the time of the snapshot.
+     *
+     * @return An ISO 8601 timestamp in UTC, or null if the export doesn’t read a snapshot or isn’t begun yet.
+     */
+    public String getSnapshotTimestamp() {
+        return (snapshotTime != null) ? DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(snapshotTime)) :
+                null;
+    }
+
+    /**
+     * Writes all contexts as JSON array. A snapshot export writes an object with the snapshot timestamp and the
+     * array of contexts.
+     *
+     * @param outputStream stream the contexts are written to
+     * @throws IOException if the contexts can’t be written
+     */
+    public void writeJson(OutputStream outputStream) throws IOException {
+        boolean success = false;
+
+        try {
+            begin();
+            JsonGenerator jsonGenerator = createJsonGenerator(outputStream);
+            List<Integer> ids = new ArrayList<>(CHUNK_SIZE);
+
+            if (snapshot) {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeStringField("snapshot", getSnapshotTimestamp());
+                jsonGenerator.writeFieldName("contexts");
+            }
+
+            jsonGenerator.writeStartArray();
+            scroll("context", CONTEXT_KEY, "", null, Collections.emptyMap(), row -> {
+                ids.add(((Number) row[2]).intValue());
+
+                if (ids.size() == CHUNK_SIZE) {
+                    writeJsonChunk(jsonGenerator, ids);
+                }
+            });
+
+            if (!ids.isEmpty()) {
+                writeJsonChunk(jsonGenerator, ids);
+            }
+
+            jsonGenerator.writeEndArray();
+
+            if (snapshot) {
+                jsonGenerator.writeEndObject();
+            }
+
+            jsonGenerator.flush();
+            jsonGenerator.close();
+            success = true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            throw e;
+        } finally {
+            close(success);
+        }
+    }
+
+    /**
+     * Writes contexts modified at or after an instant and tombstones of contexts deleted at or after it as JSON
+     * object. Besides the arrays of contexts and tombstones, the object contains the timestamp and the cursor of the
+     * export. The cursor is the instant to pass to the next incremental export. It lies an overlap before the
+     * timestamp, so that changes of write transactions which commit late aren’t missed, see {@link ChangeCursor}.
+     * Contexts modified within the overlap are exported again by the next incremental export.
+     *
+     * @param outputStream stream the contexts are written to
+     * @param since an instant
+     * @throws IOException if the contexts can’t be written
+     */
+    public void writeJson(OutputStream outputStream, Instant since) throws IOException {
+        boolean success = false;
+
+        try {
+            begin();
+            Instant timestamp = (snapshotTime != null) ? Instant.ofEpochMilli(snapshotTime) : Instant.now();
+            JsonGenerator jsonGenerator = createJsonGenerator(outputStream);
+            Map<String, Object> parameters = Collections.singletonMap("since", Timestamp.from(since));
+            List<Integer> ids = new ArrayList<>(CHUNK_SIZE);
+
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("since", DateTimeFormatter.ISO_INSTANT.format(since));
+            jsonGenerator.writeStringField("timestamp", DateTimeFormatter.ISO_INSTANT.format(timestamp));
+            jsonGenerator.writeStringField("cursor",
+                    DateTimeFormatter.ISO_INSTANT.format(ChangeCursor.getCursor(timestamp)));
+            jsonGenerator.writeArrayFieldStart("contexts");
+            scroll("context", CONTEXT_KEY, "", "modified >= :since", parameters, row -> {
+                ids.add(((Number) row[2]).intValue());
+
+                if (ids.size() == CHUNK_SIZE) {
+                    writeJsonChunk(jsonGenerator, ids);
+                }
+            });
+
+            if (!ids.isEmpty()) {
+                writeJsonChunk(jsonGenerator, ids);
+            }
+
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeArrayFieldStart("deleted");
+            scroll("tombstone", TOMBSTONE_KEY, ", entity_id", "type = 'CONTEXT' AND deleted >= :since", parameters,
+                    row -> jsonGenerator.writeObject(new Tombstone(Tombstone.Type.CONTEXT,
+                            ((Number) row[2]).intValue(), (Timestamp) row[0])));
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeEndObject();
+            jsonGenerator.flush();
+            jsonGenerator.close();
+            success = true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            throw e;
+        } finally {
+            close(success);
+        }
+    }
+
+    /**
+     * Writes all contexts as KWIC index. Contexts whose keywords are equal in the collation of the keyword column form
+     * one sublist, like the distinct keywords of the column. A snapshot export records the snapshot timestamp.
+     *
+     * @param outputStream stream the index is written to
+     * @throws IOException if the index can’t be written
+     */
+    public void writeXml(OutputStream outputStream) throws IOException {
+        boolean success = false;
+
+        try {
+            begin();
+            KwicWriter kwicWriter = new KwicWriter(outputStream);
+            List<Integer> ids = new ArrayList<>(CHUNK_SIZE);
+            List<byte[]> weights = new ArrayList<>(CHUNK_SIZE);
+
+            kwicWriter.writeStartDocument(getSnapshotTimestamp());
+            // the weight string of a keyword is its sort key in the collation of the column
+            scroll("context", CONTEXT_KEY, ", WEIGHT_STRING(keyword)", null, Collections.emptyMap(), row -> {
+                ids.add(((Number) row[2]).intValue());
+                weights.add((byte[]) row[3]);
+
+                if (ids.size() == CHUNK_SIZE) {
+                    writeXmlChunk(kwicWriter, ids, weights);
+                }
+            });
+
+            if (!ids.isEmpty()) {
+                writeXmlChunk(kwicWriter, ids, weights);
+            }
+
+            if (subListWeight != null) {
+                kwicWriter.writeEndSubList();
+            }
+
+            kwicWriter.writeEndDocument();
+            success = true;
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+            throw new IOException(e);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            throw e;
+        } finally {
+            close(success);
+        }
+    }
+
+    /**
+     * Reads the rows of a table in order of a unique key and passes every row to a handler. Every row starts with
+     * the columns of the key.
+     * <p>
+     * Without snapshot, the rows are streamed from a stateless session on a separate connection. With snapshot, they
+     * are read from the connection of the export in pages, each of which starts after the key of the last row of the
+     * previous page, so that contexts can be loaded on the same connection between pages.
+     *
+     * @param table name of a table
+     * @param key columns of a unique key, by which rows are ordered
+     * @param columns further columns, each preceded by a comma
+     * @param condition condition of rows, or null for all rows
+     * @param parameters values of named parameters of the condition
+     * @param handler handler of the rows
+     * @throws IOException if a handler can’t write output
+     */
+    @SuppressWarnings("unchecked")
+    private void scroll(String table, String[] key, String columns, String condition, Map<String, Object> parameters,
+                        ScrollHandler handler) throws IOException {
+        String select = "SELECT " + String.join(", ", key) + columns + " FROM " + table;
+        String orderBy = " ORDER BY " + String.join(", ", key);
+
+        if (snapshot) {
+            Map<String, Object> pageParameters = new HashMap<>(parameters);
+            String keysetCondition = getKeysetCondition(key, 0);
+            Object[] lastRow = null;
+            List<Object[]> rows;
+
+            do {
+                String where = (condition != null) ? " WHERE " + condition : "";
+
+                if (lastRow != null) {
+                    where += ((condition != null) ? " AND " : " WHERE ") + keysetCondition;
+
+                    for (int i = 0; i < key.length; i++) {
+                        pageParameters.put("key" + i, lastRow[i]);
+                    }
+                }
+
+                rows = (List<Object[]>) createQuery(entityManager.unwrap(Session.class), select + where + orderBy,
+                        pageParameters).setMaxResults(CHUNK_SIZE).getResultList();
+
+                for (Object[] row : rows) {
+                    handler.handle(row);
+                }
+
+                if (!rows.isEmpty()) {
+                    lastRow = rows.get(rows.size() - 1);
+                }
+            } while (rows.size() == CHUNK_SIZE);
+        } else {
+            String queryString = select + ((condition != null) ? " WHERE " + condition : "") + orderBy;
+            StatelessSession session = entityManager.unwrap(Session.class).getSessionFactory()
+                    .openStatelessSession();
+            Transaction sessionTransaction = null;
+
+            try {
+                sessionTransaction = session.beginTransaction();
+                ScrollableResults results = createQuery(session, queryString, parameters)
+                        .setFetchSize(Integer.MIN_VALUE).scroll(ScrollMode.FORWARD_ONLY);
+
+                while (results.next()) {
+                    handler.handle(results.get());
+                }
+
+                results.close();
+                sessionTransaction.commit();
+            } catch (IOException | RuntimeException e) {
+                if (sessionTransaction != null && sessionTransaction.isActive()) {
+                    sessionTransaction.rollback();
+                }
+
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the condition of rows whose key is greater than the key given by parameters key0, key1 and so on.
+     *
+     * @param key columns of a key
+     * @param index index of the first column to compare
+     * @return A condition.
+     */
+    private static String getKeysetCondition(String[] key, int index) {
+        String greater = key[index] + " > :key" + index;
+
+        if (index == key.length - 1) {
+            return greater;
+        }
+
+        return "(" + greater + " OR (" + key[index] + " = :key" + index + " AND " +
+                getKeysetCondition(key, index + 1) + "))";
+    }
+
+    /**
+     * Creates a read-only native query.
+     *
+     * @param session a session
+     * @param queryString a native query
+     * @param parameters values of named parameters
+     * @return A native query.
+     */
+    private NativeQuery<?> createQuery(SharedSessionContract session, String queryString,
+                                       Map<String, Object> parameters) {
+        NativeQuery<?> query = session.createNativeQuery(queryString);
+
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            query.setParameter(parameter.getKey(), parameter.getValue());
+        }
+
+        return query.setReadOnly(true).setCacheable(false);
+    }
+
+    /**
+     * Creates a JSON generator which writes indented UTF-8.
+     *
+     * @param outputStream stream the JSON is written to
+     * @return A JSON generator.
+     * @throws IOException if the generator can’t be created
+     */
+    private JsonGenerator createJsonGenerator(OutputStream outputStream) throws IOException {
+        return new ObjectMapper().configure(MapperFeature.USE_ANNOTATIONS, true)
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+    }
+
+    /**
+     * Loads a chunk of contexts with their associations, writes them in order of their IDs and clears the chunk.
+     * Every context is written once, however many comments it has.
+     *
+     * @param jsonGenerator a JSON generator
+     * @param ids IDs of contexts in output order
+     * @throws IOException if a context can’t be written
+     */
+    private void writeJsonChunk(JsonGenerator jsonGenerator, List<Integer> ids) throws IOException {
+        Map<Integer, Context> contexts = findContexts("SELECT DISTINCT c FROM Context c LEFT JOIN FETCH c.pos " +
+                "LEFT JOIN FETCH c.comments LEFT JOIN FETCH c.lemma l LEFT JOIN FETCH l.pos LEFT JOIN FETCH l.user " +
+                "WHERE c.id IN (:ids)", ids);
+
+        for (Integer id : ids) {
+            Context context = contexts.get(id);
+
+            // contexts deleted during an export without snapshot are skipped
+            if (context != null) {
+                jsonGenerator.writeObject(context);
+            }
+        }
+
+        jsonGenerator.flush();
+        entityManager.clear();
+        ids.clear();
+    }
+
+    /**
+     * Loads a chunk of contexts with lemma and part of speech, writes them as KWIC items in order of their IDs and
+     * clears the chunk. A sublist is started whenever the weight string of the keyword changes.
+     *
+     * @param kwicWriter a KWIC writer
+     * @param ids IDs of contexts in output order
+     * @param weights weight strings of the keywords of the contexts
+     * @throws IOException if a context can’t be written
+     */
+    private void writeXmlChunk(KwicWriter kwicWriter, List<Integer> ids, List<byte[]> weights) throws IOException {
+        Map<Integer, Context> contexts = findContexts("SELECT c FROM Context c LEFT JOIN FETCH c.lemma " +
+                "LEFT JOIN FETCH c.pos WHERE c.id IN (:ids)", ids);
+
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                Context context = contexts.get(ids.get(i));
+
+                // contexts deleted during an export without snapshot are skipped
+                if (context != null) {
+                    if (subListWeight == null || !Arrays.equals(subListWeight, weights.get(i))) {
+                        if (subListWeight != null) {
+                            kwicWriter.writeEndSubList();
+                        }
+
+                        kwicWriter.writeStartSubList(context.getKeyword());
+                        subListWeight = weights.get(i);
+                    }
+
+                    kwicWriter.writeItem(context);
+                }
+            }
+
+            kwicWriter.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+
+        entityManager.clear();
+        ids.clear();
+        weights.clear();
+    }
+
+    /**
+     * Returns contexts of a chunk of IDs.
+     *
+     * @param queryString a query with parameter ids, which may fetch associations
+     * @param ids IDs of contexts
+     * @return A map of contexts by ID.
+     */
+    private Map<Integer, Context> findContexts(String queryString, List<Integer> ids) {
+        Map<Integer, Context> contexts = new HashMap<>(ids.size() * 2);
+
+        for (Context context : entityManager.createQuery(queryString, Context.class)
+                .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                .setParameter("ids", ids).getResultList()) {
+            contexts.put(context.getId(), context);
+        }
+
+        return contexts;
+    }
+
+    /**
+     * Rolls back the transaction of an export which wasn’t finished and closes the entity manager. Does nothing if
+     * the export isn’t begun or is already closed.
+     */
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * Ends the transaction and closes the entity manager.
+     *
+     * @param commit true to commit the transaction; false to roll it back
+     */
+    private void close(boolean commit) {
+        if (entityManager == null) {
+            return;
+        }
+
+        try {
+            if (transaction != null && transaction.isActive()) {
+                if (commit) {
+                    transaction.commit();
+                } else {
+                    transaction.rollback();
+                }
+            }
+        } finally {
+            entityManager.close();
+            entityManager = null;
+            transaction = null;
+        }
+    }
+}
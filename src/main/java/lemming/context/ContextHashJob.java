@@ -0,0 +1,144 @@
+package lemming.context;
+
+import lemming.data.HashEntityListener;
+import lemming.job.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A background job which fills missing fingerprints and repairs missing or outdated context hashes.
+ * <p>
+ * Contexts are read page by page in order of their IDs, and only contexts whose hash or fingerprint differs are
+ * written. The greatest checked ID is saved in a checkpoint file after every page, so that a restarted job resumes
+ * after it. Contexts saved by the application are hashed on save, so a later run only checks new IDs.
+ * <p>
+ * The job runs outside of the job pool under the well-known ID {@value #ID}, so that administrators can request its
+ * progress from the job resource.
+ */
+public class ContextHashJob extends Job {
+    /**
+     * Well-known ID of the job.
+     */
+    public static final String ID = "context-hashes";
+
+    /**
+     * Logger of the job.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ContextHashJob.class);
+
+    /**
+     * Number of contexts per page.
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * File which stores the greatest checked context ID, or null.
+     */
+    private final File checkpointFile;
+
+    /**
+     * Creates a context hash job.
+     *
+     * @param checkpointFile file which stores the greatest checked context ID, or null to check all contexts
+     */
+    public ContextHashJob(File checkpointFile) {
+        super(ID, "Context hashes");
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Fills missing fingerprints and checks the hashes of all contexts after the checkpoint.
+     *
+     * @throws Exception if the checkpoint can’t be written
+     */
+    @Override
+    protected void execute() throws Exception {
+        ContextDao contextDao = new ContextDao();
+        Integer afterId = readCheckpoint();
+        List<Object[]> rows;
+
+        contextDao.fillFingerprints(PAGE_SIZE);
+
+        do {
+            rows = contextDao.findHashRows(afterId, PAGE_SIZE);
+            List<Object[]> changedRows = new ArrayList<>();
+
+            for (Object[] row : rows) {
+                String hash = HashEntityListener.getHash((String) row[2], (String) row[3], (String) row[4],
+                        (String) row[5], (String) row[6]);
+                Long fingerprint = HashEntityListener.getFingerprint(hash);
+                Long oldFingerprint = (row[8] != null) ? ((Number) row[8]).longValue() : null;
+
+                if (!hash.equals(row[7]) || !Objects.equals(fingerprint, oldFingerprint)) {
+                    changedRows.add(new Object[]{row[0], row[1], hash, fingerprint});
+                }
+            }
+
+            addHashed(rows.size());
+
+            if (!changedRows.isEmpty()) {
+                addPersisted(contextDao.updateHashes(changedRows));
+            }
+
+            if (!rows.isEmpty()) {
+                afterId = ((Number) rows.get(rows.size() - 1)[0]).intValue();
+                writeCheckpoint(afterId);
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("Context hashes were checked up to ID " + afterId + ".");
+                return;
+            }
+        } while (rows.size() == PAGE_SIZE);
+
+        logger.info("Checked " + getHashed() + " context hashes, updated " + getPersisted() + ".");
+    }
+
+    /**
+     * Returns the greatest checked context ID from the checkpoint file.
+     *
+     * @return A context ID, or 0 if there is no checkpoint.
+     */
+    private Integer readCheckpoint() {
+        if (checkpointFile != null && checkpointFile.isFile()) {
+            try {
+                List<String> lines = Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8);
+
+                if (!lines.isEmpty()) {
+                    return Integer.valueOf(lines.get(0).trim());
+                }
+            } catch (IOException | NumberFormatException e) {
+                logger.warn("Checkpoint " + checkpointFile + " can’t be read.", e);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Saves the greatest checked context ID in the checkpoint file.
+     *
+     * @param afterId a context ID
+     * @throws IOException if the checkpoint file can’t be written
+     */
+    private void writeCheckpoint(Integer afterId) throws IOException {
+        if (checkpointFile != null) {
+            File temporaryFile = new File(checkpointFile.getPath() + ".tmp");
+
+            Files.write(temporaryFile.toPath(), Collections.singletonList(afterId.toString()),
+                    StandardCharsets.UTF_8);
+            Files.move(temporaryFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
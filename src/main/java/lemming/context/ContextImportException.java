@@ -0,0 +1,33 @@
+package lemming.context;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An exception thrown when sources of a context import can’t be read or are invalid.
+ */
+public class ContextImportException extends Exception {
+    /**
+     * Exceptions by name of the failed source, in order of the sources.
+     */
+    private final Map<String, Exception> errors;
+
+    /**
+     * Creates a context import exception.
+     *
+     * @param errors exceptions by name of the failed source
+     */
+    public ContextImportException(Map<String, Exception> errors) {
+        super(errors.size() + " source(s) of the context import failed.");
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * Returns the exceptions of failed sources.
+     *
+     * @return A map of exceptions by name of the failed source.
+     */
+    public Map<String, Exception> getErrors() {
+        return errors;
+    }
+}
@@ -3,18 +3,26 @@ package lemming.context;
 import lemming.HomePage;
 import lemming.auth.WebSession;
 import lemming.context.inbound.*;
+import lemming.job.Job;
+import lemming.job.JobRegistry;
 import lemming.ui.panel.AlertPanel;
 import lemming.user.User;
 import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemFactory;
+import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
 import org.apache.wicket.ajax.AjaxEventBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.markup.html.AjaxLink;
 import org.apache.wicket.behavior.Behavior;
+import org.apache.wicket.core.util.string.JavaScriptUtils;
 import org.apache.wicket.extensions.ajax.markup.html.IndicatingAjaxButton;
 import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.JavaScriptHeaderItem;
 import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.Form;
@@ -25,14 +33,11 @@ import org.apache.wicket.model.StringResourceModel;
 import org.apache.wicket.protocol.http.servlet.MultipartServletWebRequest;
 import org.apache.wicket.protocol.http.servlet.ServletWebRequest;
 import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.JavaScriptResourceReference;
+import org.apache.wicket.request.resource.PackageResourceReference;
+import org.apache.wicket.util.file.FileCleanerTrackerAdapter;
 import org.apache.wicket.util.lang.Bytes;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 
-import javax.xml.stream.XMLStreamException;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -42,9 +47,9 @@ import java.util.List;
  */
 class ContextImportForm extends Form<Void> {
     /**
-     * A logger named corresponding to this class.
+     * Size in bytes above which uploaded files are written to disk.
      */
-    private static final Logger logger = LoggerFactory.getLogger(ContextImportForm.class);
+    private static final int UPLOAD_SIZE_THRESHOLD = 64 * 1024;
 
     /**
      * A panel which lists groups of inbound contexts.
@@ -84,6 +89,11 @@ class ContextImportForm extends Form<Void> {
      */
     private AlertPanel alertPanel;
 
+    /**
+     * A behavior which is called when an import job is finished.
+     */
+    private JobCallbackBehavior jobCallbackBehavior;
+
     /**
      * Called when a context import form is initialized.
      */
@@ -98,6 +108,7 @@ class ContextImportForm extends Form<Void> {
         alertPanel = new AlertPanel();
         SubmitButton submitButton = new SubmitButton(this);
         contextPackagePanel = new InboundContextPackagePanel();
+        jobCallbackBehavior = new JobCallbackBehavior();
 
         fileInput.add(new FileInputChangeBehavior())
                 .add(AttributeModifier.append("style", "position: absolute; left: -9999px;"));
@@ -105,6 +116,8 @@ class ContextImportForm extends Form<Void> {
         add(textInput.setMarkupId(textInput.getId()));
         add(removeButton.setOutputMarkupId(true).setOutputMarkupPlaceholderTag(true).setVisible(false));
         add(browseButton.setMarkupId(browseButton.getId()).add(new BrowseButtonBehavior()));
+        add(jobCallbackBehavior);
+        add(new JobPollingBehavior());
         getPage().add(alertPanel.setOutputMarkupId(true).setOutputMarkupPlaceholderTag(true).setVisible(false));
         getPage().add(new ToHomePageButton());
         getPage().add(submitButton);
@@ -112,89 +125,103 @@ class ContextImportForm extends Form<Void> {
         getPage().add(new ContextImportConfirmPanel());
     }
 
-    private void logException(Exception exception) {
-        logger.error("Context import failed with exception.", exception);
+    /**
+     * Called on submit of the content import form. Starts a background job which imports the files.
+     *
+     * @param target    target that produces an Ajax response
+     * @param fileItems objects representing files of a form item
+     */
+    private void onSubmit(AjaxRequestTarget target, List<FileItem> fileItems) {
+        Job job = JobRegistry.submit(new ContextImportJob(WebSession.get().getUser(), fileItems));
+
+        if (job.isFinished()) {
+            fileItems.forEach(FileItem::delete);
+            onJobFinished(target, job);
+        } else {
+            target.add(alertPanel.setVisible(false));
+            target.appendJavaScript(getPollingScript(job));
+        }
     }
 
     /**
-     * Called on submit of the content import form.
+     * Called when an upload fails.
      *
-     * @param target   target that produces an Ajax response
-     * @param fileItem object representing a file for a form item
+     * @param target    target that produces an Ajax response
+     * @param exception exception which occurred
      */
-    private void onSubmit(AjaxRequestTarget target, FileItem fileItem) {
-        ContextXmlReader xmlReader = new ContextXmlReader();
-        List<InboundContext> contexts = null;
-
-        try {
-            xmlReader.validateXml(fileItem.getInputStream());
-        } catch (IOException | SAXException e) {
-            onException(target, e);
-            logException(e);
-            return;
-        }
+    private void onUploadException(AjaxRequestTarget target, FileUploadException exception) {
+        String message = exception.getLocalizedMessage();
 
-        try {
-            contexts = xmlReader.readXml(fileItem.getInputStream());
-        } catch (IOException | XMLStreamException e) {
-            onException(target, e);
-            logException(e);
-            return;
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileUploadBase.SizeException) {
+                message = new StringResourceModel("ContextImportForm.uploadTooLarge", this)
+                        .setParameters(getMaxUploadSize().toString()).getString();
+                break;
+            }
         }
 
-        if (contexts != null) {
-            User user = WebSession.get().getUser();
+        alertPanel.setMessage(message).setType(AlertPanel.Type.ERROR).setVisible(true);
+        target.add(alertPanel);
+    }
 
-            if (contexts.size() > 0) {
-                InboundContextPackage contextPackage = new InboundContextPackage(user);
-                new InboundContextPackageDao().persist(contextPackage);
+    /**
+     * Returns the maximum size of uploads.
+     *
+     * @return A size.
+     */
+    private Bytes getMaxUploadSize() {
+        return ((lemming.WebApplication) getApplication()).getMaxUploadSize();
+    }
 
-                for (InboundContext context : contexts) {
-                    context.setPackage(contextPackage);
-                    contextPackage.addContext(context);
-                }
+    /**
+     * Creates a factory for uploaded files. Files larger than a small threshold are streamed to temporary files,
+     * which are deleted when their file items are deleted or garbage collected.
+     *
+     * @return A file item factory.
+     */
+    private FileItemFactory newFileItemFactory() {
+        DiskFileItemFactory fileItemFactory = new DiskFileItemFactory(UPLOAD_SIZE_THRESHOLD, null);
+        fileItemFactory.setFileCleaningTracker(new FileCleanerTrackerAdapter(getApplication().getResourceSettings()
+                .getFileCleaner()));
+        return fileItemFactory;
+    }
 
+    /**
+     * Called when an import job is finished.
+     *
+     * @param target target that produces an Ajax response
+     * @param job    finished import job
+     */
+    private void onJobFinished(AjaxRequestTarget target, Job job) {
+        if (job.getState().equals(Job.State.DONE)) {
+            if (job.getPersisted() > 0) {
                 StringResourceModel messageModel = new StringResourceModel("ContextImportPage.successMessage", this)
-                        .setParameters(String.valueOf(contexts.size()));
+                        .setParameters(String.valueOf(job.getPersisted()));
                 alertPanel.setMessage(messageModel.getString()).setType(AlertPanel.Type.SUCCESS).setVisible(true);
-                new InboundContextDao().batchPersist(contexts);
                 target.add(contextPackagePanel);
             } else {
                 String message = getString("ContextImportPage.noContextsMessage");
                 alertPanel.setMessage(message).setType(AlertPanel.Type.INFO).setVisible(true);
             }
-
-            target.add(alertPanel);
+        } else {
+            String message = (job.getMessage() != null) ? job.getMessage() : getString("ContextImportForm.jobFailed");
+            alertPanel.setMessage(message).setType(AlertPanel.Type.ERROR).setVisible(true);
         }
+
+        target.add(alertPanel);
     }
 
     /**
-     * Called when an exception occurs.
+     * Returns a script which polls the state of an import job.
      *
-     * @param target    target that produces an Ajax response
-     * @param exception exception which occurred.
+     * @param job an import job
+     * @return A JavaScript string.
      */
-    private void onException(AjaxRequestTarget target, Exception exception) {
-        String message = exception.getLocalizedMessage();
-
-        if (exception instanceof SAXParseException) {
-            SAXParseException saxParseException = (SAXParseException) exception;
-
-            if (saxParseException.getLineNumber() != -1 && saxParseException.getColumnNumber() != -1) {
-                message += "<br/>" + getString("ContextImportPage.line") + ": " + saxParseException.getLineNumber();
-                message += ", " + getString("ContextImportPage.column") + ": " +
-                        saxParseException.getColumnNumber();
-            }
-        } else if (exception instanceof ContextXmlReader.XmlStreamException) {
-            ContextXmlReader.XmlStreamException xmlStreamException = (ContextXmlReader.XmlStreamException) exception;
-            message += "<br/>" + getString("ContextImportPage.line") + ": " +
-                    xmlStreamException.getLocation().getLineNumber();
-            message += ", " + getString("ContextImportPage.column") + ": " +
-                    xmlStreamException.getLocation().getColumnNumber();
-        }
-
-        alertPanel.setMessage(message).setType(AlertPanel.Type.ERROR).setVisible(true);
-        target.add(alertPanel);
+    private String getPollingScript(Job job) {
+        String jobUrl = getRequest().getContextPath() + "/api/jobs/" + job.getId();
+        return "pollImportJob('" + JavaScriptUtils.escapeQuotes(jobUrl) + "', '#importJobs', '" +
+                JavaScriptUtils.escapeQuotes(getString("ContextImportForm.jobProgress")) + "', '" +
+                jobCallbackBehavior.getCallbackUrl() + "');";
     }
 
     /**
@@ -207,9 +234,9 @@ class ContextImportForm extends Form<Void> {
 
         @Override
         protected void onEvent(AjaxRequestTarget target) {
-            String javaScript = "var filename = jQuery('#" + fileInput.getMarkupId() + "')[0].files.length ? " +
-                    "jQuery('#" + fileInput.getMarkupId() + "')[0].files[0].name : ''; " +
-                    "jQuery('#" + textInput.getMarkupId() + "').val(filename);";
+            String javaScript = "var filenames = jQuery.map(jQuery('#" + fileInput.getMarkupId() + "')[0].files, " +
+                    "function (file) { return file.name; }).join(', '); " +
+                    "jQuery('#" + textInput.getMarkupId() + "').val(filenames);";
             target.appendJavaScript(javaScript);
             target.add(removeButton.setVisible(true));
             target.add(alertPanel.setVisible(false));
@@ -234,6 +261,51 @@ class ContextImportForm extends Form<Void> {
         }
     }
 
+    /**
+     * A behavior which shows the result of a finished import job.
+     */
+    private class JobCallbackBehavior extends AbstractDefaultAjaxBehavior {
+        /**
+         * Responds to the callback of a finished import job.
+         *
+         * @param target target that produces an Ajax response
+         */
+        @Override
+        protected void respond(AjaxRequestTarget target) {
+            String jobId = getRequest().getRequestParameters().getParameterValue("jobId").toOptionalString();
+            Job job = JobRegistry.get(jobId);
+            User user = WebSession.get().getUser();
+
+            if (job != null && job.isFinished() && user.getId().equals(job.getUserId())) {
+                onJobFinished(target, job);
+            }
+        }
+    }
+
+    /**
+     * A behavior which resumes polling of running import jobs of the current user, e.g. after a page reload.
+     */
+    private class JobPollingBehavior extends Behavior {
+        /**
+         * Renders to the web response what the component wants to contribute.
+         *
+         * @param component component object
+         * @param response  response object
+         */
+        @Override
+        public void renderHead(Component component, IHeaderResponse response) {
+            PackageResourceReference javaScriptReference = new JavaScriptResourceReference(ContextImportForm.class,
+                    "scripts/import-job.js");
+            response.render(JavaScriptHeaderItem.forReference(javaScriptReference));
+
+            for (Job job : JobRegistry.findByUser(WebSession.get().getUser(), false)) {
+                if (job instanceof ContextImportJob) {
+                    response.render(OnDomReadyHeaderItem.forScript(getPollingScript(job)));
+                }
+            }
+        }
+    }
+
     /**
      * A button which clears all form components.
      */
@@ -309,18 +381,19 @@ class ContextImportForm extends Form<Void> {
 
                 if (parameterIterator.hasNext()) {
                     MultipartServletWebRequest multipartRequest = request
-                            .newMultipartWebRequest(Bytes.megabytes(10), "ignored");
+                            .newMultipartWebRequest(getMaxUploadSize(), "ignored", newFileItemFactory());
                     multipartRequest.parseFileParts();
                     List<FileItem> fileItems = multipartRequest.getFiles().get(fileInput.getId());
 
                     if (fileItems != null) {
                         if (fileItems.size() > 0) {
-                            ContextImportForm.this.onSubmit(target, fileItems.get(0));
+                            ContextImportForm.this.onSubmit(target, fileItems);
                         }
                     }
                 }
             } catch (FileUploadException e) {
                 e.printStackTrace();
+                onUploadException(target, e);
             }
 
             removeButton.setVisible(false);
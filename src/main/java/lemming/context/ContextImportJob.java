@@ -0,0 +1,377 @@
+package lemming.context;
+
+import lemming.context.inbound.InboundContextPackage;
+import lemming.context.inbound.InboundContextPackageDao;
+import lemming.context.inbound.MatchResult;
+import lemming.context.inbound.VerificationCache;
+import lemming.job.Job;
+import lemming.user.User;
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItem;
+import org.apache.wicket.Application;
+import org.apache.wicket.Session;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.model.StringResourceModel;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.string.Strings;
+
+import javax.xml.stream.Location;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A background job which imports uploaded context XML files into a new package of inbound contexts.
+ * <p>
+ * Uploaded ZIP archives are unpacked and each XML entry is imported as a separate source. After the import, inbound
+ * contexts are matched by hash and a verification of the package is started. Uploaded files are deleted when the job
+ * ends.
+ */
+public class ContextImportJob extends Job {
+    /**
+     * Size of the read buffer of files spooled to disk.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of entries of an uploaded ZIP archive.
+     */
+    private static final int MAX_ZIP_ENTRIES = 10000;
+
+    /**
+     * Maximum total size of the unpacked XML entries of an uploaded ZIP archive.
+     */
+    private static final Bytes MAX_UNPACKED_SIZE = Bytes.gigabytes(8);
+
+    /**
+     * User who uploaded the files.
+     */
+    private final User user;
+
+    /**
+     * Uploaded files.
+     */
+    private final List<FileItem> fileItems;
+
+    /**
+     * Application which started the job.
+     */
+    private final Application application;
+
+    /**
+     * Session which started the job.
+     */
+    private final Session session;
+
+    /**
+     * Creates a context import job. Must be called from a request thread.
+     *
+     * @param user user who uploaded the files
+     * @param fileItems uploaded files
+     */
+    public ContextImportJob(User user, List<FileItem> fileItems) {
+        super(user, fileItems.stream().map(FileItem::getName).collect(Collectors.joining(", ")));
+        this.user = user;
+        this.fileItems = new ArrayList<>(fileItems);
+        this.application = Application.get();
+        this.session = Session.get();
+    }
+
+    /**
+     * Reads the uploaded files into a new package, matches its inbound contexts by hash and starts the verification.
+     *
+     * @throws Exception if a file can’t be read or is invalid
+     */
+    @Override
+    protected void execute() throws Exception {
+        List<Closeable> resources = new ArrayList<>();
+        List<Path> temporaryFiles = new ArrayList<>();
+
+        // localized messages and the context schema are looked up through the application
+        ThreadContext.setApplication(application);
+        ThreadContext.setSession(session);
+
+        try {
+            List<ContextImportPipeline.Source> sources = getSources(resources, temporaryFiles);
+            InboundContextPackage contextPackage = new InboundContextPackage(user);
+            new InboundContextPackageDao().persist(contextPackage);
+            int contextCount = new ContextImportPipeline(contextPackage, this).run(sources);
+
+            if (contextCount > 0) {
+                MatchResult matchResult = new InboundContextPackageDao().matchContextsByHash(contextPackage);
+                addMatched(matchResult.getMatched());
+                VerificationCache.precompute(contextPackage);
+            }
+        } catch (ContextImportException e) {
+            setMessage(getErrorMessage(e));
+            throw e;
+        } finally {
+            for (Closeable resource : resources) {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            for (Path temporaryFile : temporaryFiles) {
+                Files.deleteIfExists(temporaryFile);
+            }
+
+            fileItems.forEach(FileItem::delete);
+            ThreadContext.detach();
+        }
+    }
+
+    /**
+     * Returns the sources of all uploaded files. Every XML entry of a ZIP archive is a separate source.
+     * <p>
+     * Archives with too many entries or with XML entries which unpack to more than the maximum size are rejected.
+     * Declared sizes of entries are checked before the import, and the unpacked bytes are counted while reading,
+     * because declared sizes can’t be trusted.
+     *
+     * @param resources list which receives opened archives
+     * @param temporaryFiles list which receives created temporary files
+     * @return A list of sources.
+     * @throws ContextImportException if an archive can’t be opened or exceeds a limit
+     */
+    private List<ContextImportPipeline.Source> getSources(List<Closeable> resources, List<Path> temporaryFiles)
+            throws ContextImportException {
+        List<ContextImportPipeline.Source> sources = new ArrayList<>();
+
+        for (FileItem fileItem : fileItems) {
+            if (isZipFile(fileItem)) {
+                ZipFile zipFile;
+
+                try {
+                    zipFile = new ZipFile(getFile(fileItem, temporaryFiles));
+                } catch (IOException e) {
+                    throw new ContextImportException(Collections.singletonMap(fileItem.getName(), e));
+                }
+
+                resources.add(zipFile);
+
+                if (zipFile.size() > MAX_ZIP_ENTRIES) {
+                    throw getLimitException(fileItem, new StringResourceModel("ContextImportJob.tooManyEntries")
+                            .setParameters(MAX_ZIP_ENTRIES).getString());
+                }
+
+                String sizeMessage = new StringResourceModel("ContextImportJob.archiveTooLarge")
+                        .setParameters(MAX_UNPACKED_SIZE.toString()).getString();
+                AtomicLong remainingSize = new AtomicLong(MAX_UNPACKED_SIZE.bytes());
+                List<ContextImportPipeline.Source> entrySources = new ArrayList<>();
+                long declaredSize = 0L;
+
+                for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+                    ZipEntry entry = entries.nextElement();
+
+                    if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".xml")) {
+                        declaredSize += Math.max(0L, entry.getSize());
+                        entrySources.add(new ContextImportPipeline.Source(fileItem.getName() + "/" + entry.getName(),
+                                () -> new BufferedInputStream(new LimitedInputStream(zipFile.getInputStream(entry),
+                                        remainingSize, sizeMessage), BUFFER_SIZE)));
+                    }
+                }
+
+                if (declaredSize > MAX_UNPACKED_SIZE.bytes()) {
+                    throw getLimitException(fileItem, sizeMessage);
+                }
+
+                sources.addAll(entrySources);
+            } else {
+                sources.add(new ContextImportPipeline.Source(fileItem.getName(), () -> openStream(fileItem)));
+            }
+        }
+
+        return sources;
+    }
+
+    /**
+     * Returns the exception of an archive which exceeds a limit.
+     *
+     * @param fileItem an uploaded archive
+     * @param message localized message
+     * @return A context import exception.
+     */
+    private ContextImportException getLimitException(FileItem fileItem, String message) {
+        return new ContextImportException(Collections.singletonMap(fileItem.getName(), new ZipException(message)));
+    }
+
+    /**
+     * Checks if an uploaded file is a ZIP archive.
+     *
+     * @param fileItem an uploaded file
+     * @return True if the file is a ZIP archive; false otherwise.
+     */
+    private boolean isZipFile(FileItem fileItem) {
+        String contentType = fileItem.getContentType();
+        return (fileItem.getName() != null && fileItem.getName().toLowerCase().endsWith(".zip")) ||
+                "application/zip".equals(contentType) || "application/x-zip-compressed".equals(contentType);
+    }
+
+    /**
+     * Returns a file with the content of an uploaded file. Uploads held in memory are written to a temporary file.
+     *
+     * @param fileItem an uploaded file
+     * @param temporaryFiles list which receives created temporary files
+     * @return A file.
+     * @throws IOException if a temporary file can’t be written
+     */
+    private File getFile(FileItem fileItem, List<Path> temporaryFiles) throws IOException {
+        if (fileItem instanceof DiskFileItem && !fileItem.isInMemory()) {
+            return ((DiskFileItem) fileItem).getStoreLocation();
+        }
+
+        Path temporaryFile = Files.createTempFile("context-import", ".zip");
+        temporaryFiles.add(temporaryFile);
+
+        try (InputStream inputStream = fileItem.getInputStream()) {
+            Files.copy(inputStream, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return temporaryFile.toFile();
+    }
+
+    /**
+     * Opens an uploaded file. A file spooled to disk is read through a file channel.
+     *
+     * @param fileItem an uploaded file
+     * @return An input stream.
+     * @throws IOException if the file can’t be opened
+     */
+    private InputStream openStream(FileItem fileItem) throws IOException {
+        if (fileItem instanceof DiskFileItem && !fileItem.isInMemory()) {
+            File file = ((DiskFileItem) fileItem).getStoreLocation();
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            return new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+        }
+
+        return fileItem.getInputStream();
+    }
+
+    /**
+     * Returns an error message which lists every failed source with the location of its error.
+     *
+     * @param exception exception of the import
+     * @return An error message.
+     */
+    private String getErrorMessage(ContextImportException exception) {
+        List<String> messages = new ArrayList<>();
+
+        for (Map.Entry<String, Exception> error : exception.getErrors().entrySet()) {
+            String message = Strings.escapeMarkup(error.getKey()) + ": " +
+                    Strings.escapeMarkup(String.valueOf(error.getValue().getLocalizedMessage()));
+
+            if (error.getValue() instanceof ContextXmlReader.XmlStreamException) {
+                Location location = ((ContextXmlReader.XmlStreamException) error.getValue()).getLocation();
+
+                if (location != null && location.getLineNumber() != -1 && location.getColumnNumber() != -1) {
+                    message += "<br/>" + new StringResourceModel("ContextImportPage.line").getString() + ": " +
+                            location.getLineNumber();
+                    message += ", " + new StringResourceModel("ContextImportPage.column").getString() + ": " +
+                            location.getColumnNumber();
+                }
+            }
+
+            messages.add(message);
+        }
+
+        return String.join("<br/>", messages);
+    }
+
+    /**
+     * An input stream of a ZIP entry which fails when the entries of an archive unpack to more than a shared budget.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        /**
+         * Remaining number of bytes which may be unpacked from the archive.
+         */
+        private final AtomicLong remainingSize;
+
+        /**
+         * Localized message of the exception thrown when the budget is exceeded.
+         */
+        private final String message;
+
+        /**
+         * Creates a limited input stream.
+         *
+         * @param inputStream input stream of a ZIP entry
+         * @param remainingSize remaining number of bytes shared by the entries of an archive
+         * @param message localized message of the exception thrown when the budget is exceeded
+         */
+        private LimitedInputStream(InputStream inputStream, AtomicLong remainingSize, String message) {
+            super(inputStream);
+            this.remainingSize = remainingSize;
+            this.message = message;
+        }
+
+        /**
+         * Reads a byte.
+         *
+         * @return A byte, or -1 at the end of the stream.
+         * @throws IOException if the entry can’t be read or the budget is exceeded
+         */
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+
+            if (value != -1) {
+                count(1);
+            }
+
+            return value;
+        }
+
+        /**
+         * Reads bytes into an array.
+         *
+         * @param buffer array which receives bytes
+         * @param offset offset of the first byte
+         * @param length maximum number of bytes
+         * @return Number of bytes read, or -1 at the end of the stream.
+         * @throws IOException if the entry can’t be read or the budget is exceeded
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+
+            if (count > 0) {
+                count(count);
+            }
+
+            return count;
+        }
+
+        /**
+         * Takes read bytes from the budget.
+         *
+         * @param count number of read bytes
+         * @throws ZipException if the budget is exceeded
+         */
+        private void count(long count) throws ZipException {
+            if (remainingSize.addAndGet(-count) < 0) {
+                throw new ZipException(message);
+            }
+        }
+    }
+}
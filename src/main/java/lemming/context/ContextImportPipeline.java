@@ -0,0 +1,427 @@
+package lemming.context;
+
+import lemming.context.inbound.InboundContext;
+import lemming.context.inbound.InboundContextDao;
+import lemming.context.inbound.InboundContextPackage;
+import lemming.context.inbound.InboundContextPackageDao;
+import lemming.data.HashEntityListener;
+import lemming.job.Job;
+import org.apache.wicket.Application;
+import org.apache.wicket.Session;
+import org.apache.wicket.ThreadContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pipeline which reads context XML into a package of inbound contexts.
+ * <p>
+ * Parser threads parse and validate sources of XML and hand every context to a bounded queue. A background writer
+ * takes contexts from the queue and persists them in transactions of a fixed size, so that memory use doesn’t depend
+ * on the size of the upload. If parsing or writing fails, the package and all of its persisted inbound contexts are
+ * removed. Progress is reported to the counters of a job.
+ */
+public class ContextImportPipeline {
+    /**
+     * Logger of the import pipeline.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ContextImportPipeline.class);
+
+    /**
+     * Number of inbound contexts persisted in one transaction.
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Maximum number of inbound contexts waiting to be persisted.
+     */
+    private static final int QUEUE_CAPACITY = 2 * CHUNK_SIZE;
+
+    /**
+     * Marker which ends the queue of inbound contexts.
+     */
+    private static final InboundContext END = new InboundContext();
+
+    /**
+     * Maximum number of sources parsed in parallel by one pipeline.
+     */
+    private static final int PARSER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Executor running parsers and writers.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Package which receives the inbound contexts.
+     */
+    private final InboundContextPackage contextPackage;
+
+    /**
+     * Job which receives progress.
+     */
+    private final Job job;
+
+    /**
+     * Queue of inbound contexts waiting to be persisted.
+     */
+    private final BlockingQueue<InboundContext> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Prematcher used by the writer.
+     */
+    private final ContextPrematcher prematcher = new ContextPrematcher();
+
+    /**
+     * Exception which stopped the writer, or null.
+     */
+    private volatile RuntimeException writeException;
+
+    /**
+     * True if a source couldn’t be read. Contexts are no longer persisted afterwards.
+     */
+    private volatile boolean readFailed = false;
+
+    /**
+     * Creates an import pipeline.
+     *
+     * @param contextPackage persisted package which receives the inbound contexts
+     * @param job job which receives progress
+     */
+    public ContextImportPipeline(InboundContextPackage contextPackage, Job job) {
+        this.contextPackage = contextPackage;
+        this.job = job;
+    }
+
+    /**
+     * Stops all parsers and writers.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the executor running parsers and writers.
+     *
+     * @return An executor service.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "context-import");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * Reads context XML from several sources and persists their contexts in the package. Sources are parsed in
+     * parallel; contexts of a source keep their order. The package is removed if any source is invalid, if
+     * persisting fails or if the sources contain no contexts.
+     *
+     * @param sources sources of context XML
+     * @return The number of persisted inbound contexts.
+     * @throws ContextImportException if a source can’t be read or is invalid
+     */
+    public int run(List<Source> sources) throws ContextImportException {
+        Future<Integer> writer = getExecutor().submit(this::write);
+        Exception[] readExceptions = new Exception[sources.size()];
+        Integer contextCount = null;
+
+        try {
+            try {
+                read(sources, readExceptions);
+            } finally {
+                put(END);
+                contextCount = awaitWriter(writer);
+            }
+
+            if (writeException != null) {
+                throw writeException;
+            }
+        } catch (RuntimeException e) {
+            discard();
+            throw e;
+        }
+
+        if (readFailed) {
+            Map<String, Exception> errors = new LinkedHashMap<>();
+
+            for (int i = 0; i < sources.size(); i++) {
+                if (readExceptions[i] != null) {
+                    errors.put(sources.get(i).getName(), readExceptions[i]);
+                }
+            }
+
+            discard();
+            throw new ContextImportException(errors);
+        }
+
+        if (contextCount == 0) {
+            discard();
+        }
+
+        return contextCount;
+    }
+
+    /**
+     * Parses sources on up to PARSER_COUNT threads and waits until all sources are parsed. Parsing continues after
+     * an invalid source, so that errors of all sources are reported.
+     *
+     * @param sources sources of context XML
+     * @param readExceptions array which receives the exception of each failed source
+     */
+    private void read(List<Source> sources, Exception[] readExceptions) {
+        Application application = ThreadContext.getApplication();
+        Session session = ThreadContext.getSession();
+        AtomicInteger nextIndex = new AtomicInteger();
+        List<Future<?>> parsers = new ArrayList<>();
+
+        for (int i = 0; i < Math.min(PARSER_COUNT, sources.size()); i++) {
+            parsers.add(getExecutor().submit(() -> {
+                // localized messages and the context schema are looked up through the application
+                ThreadContext.setApplication(application);
+                ThreadContext.setSession(session);
+
+                try {
+                    for (int index = nextIndex.getAndIncrement(); index < sources.size() && writeException == null;
+                         index = nextIndex.getAndIncrement()) {
+                        readExceptions[index] = read(sources.get(index));
+                    }
+                } finally {
+                    ThreadContext.detach();
+                }
+            }));
+        }
+
+        for (Future<?> parser : parsers) {
+            try {
+                parser.get();
+            } catch (InterruptedException e) {
+                parsers.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Context import was interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Context import failed.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Parses a source and adds its contexts to the queue.
+     *
+     * @param source a source of context XML
+     * @return The exception if the source can’t be read or is invalid, or null.
+     */
+    private Exception read(Source source) {
+        try (InputStream inputStream = source.open()) {
+            new ContextXmlReader().readXml(inputStream, this::enqueue);
+            return null;
+        } catch (IOException | XMLStreamException e) {
+            logger.info("Reading " + source.getName() + " failed: " + e.getMessage());
+            readFailed = true;
+            return e;
+        } catch (RuntimeException e) {
+            if (e == writeException) {
+                return null;
+            }
+
+            logger.error("Reading " + source.getName() + " failed.", e);
+            readFailed = true;
+            return e;
+        }
+    }
+
+    /**
+     * Adds an inbound context to the queue. Stops reading by throwing the exception of the writer if writing failed.
+     *
+     * @param context an inbound context
+     */
+    private void enqueue(InboundContext context) {
+        if (writeException != null) {
+            throw writeException;
+        }
+
+        context.setPackage(contextPackage);
+        put(context);
+        job.addParsed(1);
+    }
+
+    /**
+     * Adds an inbound context to the queue and waits for free space if necessary.
+     *
+     * @param context an inbound context
+     */
+    private void put(InboundContext context) {
+        try {
+            queue.put(context);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Context import was interrupted.", e);
+        }
+    }
+
+    /**
+     * Waits until the writer has finished.
+     *
+     * @param writer future of the writer
+     * @return The number of persisted inbound contexts.
+     */
+    private Integer awaitWriter(Future<Integer> writer) {
+        try {
+            return writer.get();
+        } catch (InterruptedException e) {
+            writer.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Context import was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Context import failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Takes inbound contexts from the queue and persists them in chunks until the end marker is taken. After a
+     * failure, remaining contexts are taken and dropped, so that the reader never blocks.
+     *
+     * @return The number of persisted inbound contexts.
+     * @throws InterruptedException if the writer is interrupted
+     */
+    private Integer write() throws InterruptedException {
+        InboundContextDao contextDao = new InboundContextDao();
+        List<InboundContext> chunk = new ArrayList<>(CHUNK_SIZE);
+        int contextCount = 0;
+
+        for (InboundContext context = queue.take(); context != END; context = queue.take()) {
+            if (writeException == null && !readFailed) {
+                chunk.add(context);
+
+                if (chunk.size() == CHUNK_SIZE) {
+                    contextCount += persist(contextDao, chunk);
+                }
+            }
+        }
+
+        if (writeException == null && !readFailed && !chunk.isEmpty()) {
+            contextCount += persist(contextDao, chunk);
+        }
+
+        return contextCount;
+    }
+
+    /**
+     * Persists a chunk of inbound contexts in one transaction and clears the chunk.
+     *
+     * @param contextDao data access object for inbound contexts
+     * @param chunk inbound contexts to persist
+     * @return The number of persisted inbound contexts.
+     */
+    private int persist(InboundContextDao contextDao, List<InboundContext> chunk) {
+        int size = chunk.size();
+
+        try {
+            // hashes are set in parallel, so that the entity listener skips them while a chunk is persisted
+            HashEntityListener.setHashes(chunk);
+            job.addHashed(size);
+            // unchanged contexts are matched in memory, so that matching by hash leaves their rows alone
+            contextDao.batchPersist(chunk, prematcher.match(chunk));
+            job.addPersisted(size);
+            return size;
+        } catch (RuntimeException e) {
+            logger.error("Persisting inbound contexts of package " + contextPackage.getId() + " failed.", e);
+            writeException = e;
+            return 0;
+        } finally {
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Removes the package and all of its persisted inbound contexts.
+     */
+    private void discard() {
+        try {
+            new InboundContextPackageDao().discard(contextPackage);
+        } catch (RuntimeException e) {
+            logger.error("Removing package " + contextPackage.getId() + " failed.", e);
+        }
+    }
+
+    /**
+     * A named source of context XML, e.g. an uploaded file or an entry of an uploaded archive.
+     */
+    public static final class Source {
+        /**
+         * Name of the source.
+         */
+        private final String name;
+
+        /**
+         * Opener of the source.
+         */
+        private final Opener opener;
+
+        /**
+         * Creates a source.
+         *
+         * @param name name of the source
+         * @param opener opener of the source
+         */
+        public Source(String name, Opener opener) {
+            this.name = name;
+            this.opener = opener;
+        }
+
+        /**
+         * Returns the name of the source.
+         *
+         * @return A name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Opens the source.
+         *
+         * @return An input stream.
+         * @throws IOException if the source can’t be opened
+         */
+        public InputStream open() throws IOException {
+            return opener.open();
+        }
+    }
+
+    /**
+     * Opens an input stream of a source.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        /**
+         * Opens an input stream.
+         *
+         * @return An input stream.
+         * @throws IOException if the stream can’t be opened
+         */
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,152 @@
+package lemming.context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches inbound contexts by fingerprint in memory before they are persisted.
+ * <p>
+ * Fingerprints of contexts are loaded for every location which occurs in an upload. Only fingerprints which belong to
+ * exactly one of the loaded contexts are matched. Matching by hash afterwards verifies these matches against full
+ * hashes and matches all remaining inbound contexts.
+ * <p>
+ * Sources are read in order of location, so the writer moves past locations and rarely returns to them. Fingerprints
+ * of a location are dropped once it hasn’t occurred in a number of chunks, so that memory is bounded by the
+ * locations in flight instead of the whole upload. A location which occurs again is loaded again.
+ */
+public class ContextPrematcher {
+    /**
+     * Number of chunks after which fingerprints of a location which hasn’t occurred again are dropped.
+     */
+    private static final int MAX_IDLE_CHUNKS = 16;
+
+    /**
+     * Data access object for contexts.
+     */
+    private final ContextDao contextDao = new ContextDao();
+
+    /**
+     * Fingerprints of loaded locations in order of last occurrence.
+     */
+    private final LinkedHashMap<String, LoadedLocation> loadedLocations = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Context IDs by fingerprint. Fingerprints of more than one context are mapped to null.
+     */
+    private final Map<Long, Integer> ids = new HashMap<>();
+
+    /**
+     * Number of matched chunks.
+     */
+    private int chunkCount = 0;
+
+    /**
+     * Returns the IDs of matching contexts for hashed inbound contexts. Fingerprints of locations which aren’t loaded
+     * are loaded, and fingerprints of locations which haven’t occurred for a while are dropped.
+     *
+     * @param contexts hashed inbound contexts
+     * @return A list of context IDs in order of the inbound contexts, with null for inbound contexts without a match.
+     */
+    public List<Integer> match(List<? extends BaseContext> contexts) {
+        Set<String> newLocations = new HashSet<>();
+        chunkCount++;
+
+        for (BaseContext context : contexts) {
+            if (context.getLocation() != null) {
+                LoadedLocation loadedLocation = loadedLocations.get(context.getLocation());
+
+                if (loadedLocation == null) {
+                    newLocations.add(context.getLocation());
+                } else {
+                    loadedLocation.lastChunk = chunkCount;
+                }
+            }
+        }
+
+        evict();
+
+        if (!newLocations.isEmpty()) {
+            Map<String, Map<Long, Integer>> locationIds = contextDao.getIdsByFingerprint(newLocations);
+
+            for (String location : newLocations) {
+                Map<Long, Integer> newIds = locationIds.getOrDefault(location, new HashMap<>());
+                long[] fingerprints = new long[newIds.size()];
+                int i = 0;
+
+                for (Map.Entry<Long, Integer> entry : newIds.entrySet()) {
+                    // fingerprints may be shared across locations as well
+                    ids.put(entry.getKey(), ids.containsKey(entry.getKey()) ? null : entry.getValue());
+                    fingerprints[i++] = entry.getKey();
+                }
+
+                loadedLocations.put(location, new LoadedLocation(fingerprints, chunkCount));
+            }
+        }
+
+        List<Integer> matchIds = new ArrayList<>(contexts.size());
+
+        for (BaseContext context : contexts) {
+            matchIds.add((context.getFingerprint() != null) ? ids.get(context.getFingerprint()) : null);
+        }
+
+        return matchIds;
+    }
+
+    /**
+     * Drops the fingerprints of locations which haven’t occurred in the last chunks. A fingerprint which is unique
+     * belongs to the dropped location and is removed. A fingerprint which is shared stays mapped to null, because it
+     * may still be shared with a loaded location.
+     */
+    private void evict() {
+        Iterator<LoadedLocation> iterator = loadedLocations.values().iterator();
+
+        while (iterator.hasNext()) {
+            LoadedLocation loadedLocation = iterator.next();
+
+            // locations are in order of last occurrence
+            if (chunkCount - loadedLocation.lastChunk < MAX_IDLE_CHUNKS) {
+                break;
+            }
+
+            for (long fingerprint : loadedLocation.fingerprints) {
+                if (ids.get(fingerprint) != null) {
+                    ids.remove(fingerprint);
+                }
+            }
+
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Fingerprints of a loaded location.
+     */
+    private static class LoadedLocation {
+        /**
+         * Fingerprints of contexts of the location.
+         */
+        private final long[] fingerprints;
+
+        /**
+         * Number of the chunk in which the location occurred last.
+         */
+        private int lastChunk;
+
+        /**
+         * Creates a loaded location.
+         *
+         * @param fingerprints fingerprints of contexts of the location
+         * @param lastChunk number of the chunk in which the location occurred last
+         */
+        private LoadedLocation(long[] fingerprints, int lastChunk) {
+            this.fingerprints = fingerprints;
+            this.lastChunk = lastChunk;
+        }
+    }
+}
@@ -4,28 +4,40 @@ import lemming.WebApplication;
 import lemming.context.inbound.InboundContext;
 import org.apache.wicket.model.StringResourceModel;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
 
 import javax.servlet.ServletContext;
 import javax.xml.XMLConstants;
-import javax.xml.namespace.QName;
 import javax.xml.stream.*;
-import javax.xml.stream.events.*;
+import javax.xml.stream.util.StreamReaderDelegate;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
-import java.io.IOException;
+import javax.xml.validation.ValidatorHandler;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Helper class to validate and read context XML data.
  */
 public class ContextXmlReader implements ErrorHandler {
+    /**
+     * Compiled context schema, shared by all readers.
+     */
+    private static volatile Schema schema;
+
+    /**
+     * Factory of XML stream readers.
+     */
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
     /**
      * Receive notification of a recoverable error.
      *
@@ -66,24 +78,24 @@ public class ContextXmlReader implements ErrorHandler {
     }
 
     /**
-     * Creates a context from obtained from information of the start element interface.
+     * Creates a context from the attributes of the current item element.
      *
-     * @param element start element of a tag
+     * @param reader stream reader positioned at the start of an item element
+     * @param values interned attribute values of the current read
      * @return A context object.
      */
-    private InboundContext createContext(StartElement element) {
+    private InboundContext createContext(XMLStreamReader reader, Map<String, String> values) {
         InboundContext context = new InboundContext();
 
-        for (Iterator<?> attributes = element.getAttributes(); attributes.hasNext(); ) {
-            Attribute attribute = (Attribute) attributes.next();
-            String value = (attribute.getValue() != null) ? attribute.getValue() : "";
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = (reader.getAttributeValue(i) != null) ? reader.getAttributeValue(i) : "";
 
-            switch (attribute.getName().getLocalPart()) {
+            switch (reader.getAttributeLocalName(i)) {
                 case "following":
                     context.setFollowing(value);
                     break;
                 case "location":
-                    context.setLocation(value);
+                    context.setLocation(intern(values, value));
                     break;
                 case "n":
                     context.setNumber(Integer.valueOf(value));
@@ -92,22 +104,30 @@ public class ContextXmlReader implements ErrorHandler {
                     context.setPreceding(value);
                     break;
                 case "type":
-                    if (value.equals("rubric_item")) {
-                        context.setType(ContextType.Type.RUBRIC);
-                    } else if (value.equals("seg_item")) {
-                        context.setType(ContextType.Type.SEGMENT);
-                    } else if (value.equals("verse_item")) {
-                        context.setType(ContextType.Type.VERSE);
+                    switch (value) {
+                        case "rubric_item":
+                            context.setType(ContextType.Type.RUBRIC);
+                            break;
+                        case "seg_item":
+                            context.setType(ContextType.Type.SEGMENT);
+                            break;
+                        case "verse_item":
+                            context.setType(ContextType.Type.VERSE);
+                            break;
                     }
 
                     break;
                 case "sp":
-                    if (value.equals("direct")) {
-                        context.setSpeech(SpeechType.Type.DIRECT);
-                    } else if (value.equals("indirect")) {
-                        context.setSpeech(SpeechType.Type.INDIRECT);
-                    } else if (value.equals("")) {
-                        context.setSpeech(SpeechType.Type.NONE);
+                    switch (value) {
+                        case "direct":
+                            context.setSpeech(SpeechType.Type.DIRECT);
+                            break;
+                        case "indirect":
+                            context.setSpeech(SpeechType.Type.INDIRECT);
+                            break;
+                        case "":
+                            context.setSpeech(SpeechType.Type.NONE);
+                            break;
                     }
 
                     break;
@@ -117,6 +137,18 @@ public class ContextXmlReader implements ErrorHandler {
         return context;
     }
 
+    /**
+     * Returns a shared instance of an attribute value.
+     *
+     * @param values interned attribute values of the current read
+     * @param value attribute value
+     * @return An equal string which is shared by all contexts of the read.
+     */
+    private String intern(Map<String, String> values, String value) {
+        String internedValue = values.putIfAbsent(value, value);
+        return (internedValue != null) ? internedValue : value;
+    }
+
     /**
      * Validates the order of punctuation tags in a context item.
      *
@@ -145,97 +177,117 @@ public class ContextXmlReader implements ErrorHandler {
     }
 
     /**
-     * Reads context XML from an input stream.
+     * Reads context XML from an input stream and validates it against the context schema in the same pass.
      *
      * @param inputStream input stream
      * @return A list of contexts or null.
      */
     public List<InboundContext> readXml(InputStream inputStream) throws XMLStreamException {
-        XMLInputFactory factory = XMLInputFactory.newInstance();
         List<InboundContext> contexts = new ArrayList<>();
-        XMLEventReader reader = factory.createXMLEventReader(inputStream);
+        readXml(inputStream, contexts::add);
+        return contexts;
+    }
+
+    /**
+     * Reads context XML from an input stream and validates it against the context schema in the same pass.
+     * <p>
+     * Every context is passed to a consumer as soon as its item element is closed, so that callers don’t need to
+     * keep all contexts of a file in memory.
+     *
+     * @param inputStream input stream
+     * @param consumer consumer of read contexts
+     */
+    public void readXml(InputStream inputStream, Consumer<InboundContext> consumer) throws XMLStreamException {
+        XMLStreamReader reader = new ValidatingStreamReader(inputFactory.createXMLStreamReader(inputStream));
+        Map<String, String> values = new HashMap<>();
+        StringBuilder text = new StringBuilder();
         String currentElementName = "";
         String punctuationType = "";
         InboundContext context = null;
 
-        while (reader.hasNext()) {
-            XMLEvent event = reader.nextEvent();
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        text.setLength(0);
 
-            switch (event.getEventType()) {
-                case XMLStreamConstants.START_ELEMENT:
-                    StartElement startElement = event.asStartElement();
-
-                    if (startElement.getName().getLocalPart().equals("item")) {
-                        currentElementName = "item";
-                        context = createContext(startElement);
-                    } else if (startElement.getName().getLocalPart().equals("punctuation")) {
-                        currentElementName = "punctuation";
-                        String currentPunctuationType = startElement.getAttributeByName(new QName("type")).getValue();
-                        // validates the order of punctuation tags in a context item
-                        validatePunctuation(context, event.getLocation(), punctuationType, currentPunctuationType);
-                        punctuationType = currentPunctuationType;
-                    } else if (startElement.getName().getLocalPart().equals("string")) {
-                        currentElementName = "string";
-                    }
+                        switch (reader.getLocalName()) {
+                            case "item":
+                                currentElementName = "item";
+                                context = createContext(reader, values);
+                                break;
+                            case "punctuation":
+                                currentElementName = "punctuation";
+                                String currentPunctuationType = reader.getAttributeValue(null, "type");
+                                // validates the order of punctuation tags in a context item
+                                validatePunctuation(context, reader.getLocation(), punctuationType,
+                                        currentPunctuationType);
+                                punctuationType = currentPunctuationType;
+                                break;
+                            case "string":
+                                currentElementName = "string";
+                                break;
+                        }
 
-                    break;
-                case XMLStreamConstants.END_ELEMENT:
-                    EndElement endElement = event.asEndElement();
-                    currentElementName = "";
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        // text of an element may be split into several events
+                        if (currentElementName.equals("punctuation")) {
+                            if (punctuationType.equals("init")) {
+                                context.setInitPunctuation(text.toString());
+                            } else if (punctuationType.equals("end")) {
+                                context.setEndPunctuation(text.toString());
+                            }
+                        } else if (currentElementName.equals("string")) {
+                            context.setKeyword(text.toString());
+                        }
 
-                    if (endElement.getName().getLocalPart().equals("item")) {
-                        contexts.add(context);
-                        punctuationType = "";
-                    }
+                        currentElementName = "";
 
-                    break;
-                case XMLStreamConstants.END_DOCUMENT:
-                    reader.close();
-                    break;
-                case XMLStreamConstants.CHARACTERS:
-                    Characters characters = event.asCharacters();
-                    assert context != null;
-
-                    if (currentElementName.equals("punctuation")) {
-                        if (punctuationType.equals("init")) {
-                            context.setInitPunctuation(characters.getData());
-                        } else if (punctuationType.equals("end")) {
-                            context.setEndPunctuation(characters.getData());
+                        if (reader.getLocalName().equals("item")) {
+                            consumer.accept(context);
+                            punctuationType = "";
                         }
-                    } else if (currentElementName.equals("string")) {
-                        context.setKeyword(characters.getData());
-                    }
 
-                    break;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (currentElementName.equals("punctuation") || currentElementName.equals("string")) {
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+
+                        break;
+                }
             }
+        } finally {
+            reader.close();
         }
-
-        return contexts;
     }
 
     /**
-     * Returns an input stream of the context schema.
+     * Returns the compiled context schema. The schema is compiled on first use and shared afterwards.
      *
-     * @return An input stream.
+     * @return A schema.
+     * @throws XMLStreamException if the schema can’t be compiled
      */
-    private InputStream getSchema() {
-        ServletContext context = WebApplication.get().getServletContext();
-        return context.getResourceAsStream("/WEB-INF/schema/context.xsd");
-    }
+    private static Schema getSchema() throws XMLStreamException {
+        if (schema == null) {
+            synchronized (ContextXmlReader.class) {
+                if (schema == null) {
+                    ServletContext context = WebApplication.get().getServletContext();
+                    InputStream schemaStream = context.getResourceAsStream("/WEB-INF/schema/context.xsd");
+                    SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
 
-    /**
-     * Validates content XML data delivered a input stream
-     *
-     * @param inputStream input stream
-     */
-    public void validateXml(InputStream inputStream) throws IOException, SAXException {
-        SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        InputStream schemaStream = getSchema();
-        Schema schema = schemaFactory.newSchema(new StreamSource(schemaStream));
-        Validator validator = schema.newValidator();
-
-        validator.setErrorHandler(this);
-        validator.validate(new StreamSource(inputStream));
+                    try {
+                        schema = schemaFactory.newSchema(new StreamSource(schemaStream));
+                    } catch (SAXException e) {
+                        throw new XMLStreamException(e);
+                    }
+                }
+            }
+        }
+
+        return schema;
     }
 
     /**
@@ -267,4 +319,230 @@ public class ContextXmlReader implements ErrorHandler {
             super.location = location;
         }
     }
+
+    /**
+     * A stream reader which passes every event it reads to a validator of the context schema.
+     * <p>
+     * Validation errors are reported as XmlStreamException with the line and column of the error.
+     */
+    private class ValidatingStreamReader extends StreamReaderDelegate {
+        /**
+         * Validator receiving the events of the stream.
+         */
+        private final ValidatorHandler validatorHandler;
+
+        /**
+         * Attributes of the current element, reused for every element.
+         */
+        private final AttributesImpl attributes = new AttributesImpl();
+
+        /**
+         * Creates a validating stream reader.
+         *
+         * @param reader underlying stream reader
+         * @throws XMLStreamException if the schema can’t be compiled
+         */
+        public ValidatingStreamReader(XMLStreamReader reader) throws XMLStreamException {
+            super(reader);
+            validatorHandler = getSchema().newValidatorHandler();
+            validatorHandler.setErrorHandler(ContextXmlReader.this);
+            validatorHandler.setDocumentLocator(new StreamLocator());
+
+            try {
+                validatorHandler.startDocument();
+            } catch (SAXException e) {
+                throw toXmlStreamException(e);
+            }
+        }
+
+        /**
+         * Reads the next event and passes it to the validator.
+         *
+         * @return The type of the event.
+         * @throws XMLStreamException if the stream is malformed or invalid
+         */
+        @Override
+        public int next() throws XMLStreamException {
+            int eventType = super.next();
+
+            try {
+                validate(eventType);
+            } catch (SAXException e) {
+                throw toXmlStreamException(e);
+            }
+
+            return eventType;
+        }
+
+        /**
+         * Passes the current event to the validator.
+         *
+         * @param eventType type of the current event
+         * @throws SAXException if the event is invalid
+         */
+        private void validate(int eventType) throws SAXException {
+            switch (eventType) {
+                case XMLStreamConstants.START_ELEMENT:
+                    attributes.clear();
+
+                    for (int i = 0; i < getNamespaceCount(); i++) {
+                        validatorHandler.startPrefixMapping(getPrefix(getNamespacePrefix(i)),
+                                getNamespaceURI(i));
+                    }
+
+                    for (int i = 0; i < getAttributeCount(); i++) {
+                        attributes.addAttribute(getUri(getAttributeNamespace(i)), getAttributeLocalName(i),
+                                getQualifiedName(getAttributePrefix(i), getAttributeLocalName(i)),
+                                getAttributeType(i), getAttributeValue(i));
+                    }
+
+                    validatorHandler.startElement(getUri(getNamespaceURI()), getLocalName(),
+                            getQualifiedName(getPrefix(), getLocalName()), attributes);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    validatorHandler.endElement(getUri(getNamespaceURI()), getLocalName(),
+                            getQualifiedName(getPrefix(), getLocalName()));
+
+                    for (int i = 0; i < getNamespaceCount(); i++) {
+                        validatorHandler.endPrefixMapping(getPrefix(getNamespacePrefix(i)));
+                    }
+
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    validatorHandler.characters(getTextCharacters(), getTextStart(), getTextLength());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    validatorHandler.processingInstruction(getPITarget(), getPIData());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    validatorHandler.endDocument();
+                    break;
+            }
+        }
+
+        /**
+         * Returns a namespace URI, or an empty string for no namespace.
+         *
+         * @param uri namespace URI or null
+         * @return A namespace URI.
+         */
+        private String getUri(String uri) {
+            return (uri != null) ? uri : "";
+        }
+
+        /**
+         * Returns a namespace prefix, or an empty string for the default namespace.
+         *
+         * @param prefix namespace prefix or null
+         * @return A namespace prefix.
+         */
+        private String getPrefix(String prefix) {
+            return (prefix != null) ? prefix : "";
+        }
+
+        /**
+         * Returns the qualified name of an element or attribute.
+         *
+         * @param prefix namespace prefix or null
+         * @param localName local name
+         * @return A qualified name.
+         */
+        private String getQualifiedName(String prefix, String localName) {
+            return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+        }
+
+        /**
+         * Converts a validation error into a stream exception with the location of the error.
+         *
+         * @param exception validation error
+         * @return A stream exception.
+         */
+        private XMLStreamException toXmlStreamException(SAXException exception) {
+            if (exception instanceof SAXParseException) {
+                SAXParseException parseException = (SAXParseException) exception;
+                return new XmlStreamException(parseException.getMessage(),
+                        new ErrorLocation(parseException.getLineNumber(), parseException.getColumnNumber()));
+            }
+
+            return new XmlStreamException(exception.getMessage(), getLocation());
+        }
+
+        /**
+         * A SAX locator reporting the current location of the stream.
+         */
+        private class StreamLocator implements Locator {
+            @Override
+            public String getPublicId() {
+                return getLocation().getPublicId();
+            }
+
+            @Override
+            public String getSystemId() {
+                return getLocation().getSystemId();
+            }
+
+            @Override
+            public int getLineNumber() {
+                return getLocation().getLineNumber();
+            }
+
+            @Override
+            public int getColumnNumber() {
+                return getLocation().getColumnNumber();
+            }
+        }
+    }
+
+    /**
+     * Location of a validation error.
+     */
+    private static class ErrorLocation implements Location {
+        /**
+         * Line number of the error.
+         */
+        private final int lineNumber;
+
+        /**
+         * Column number of the error.
+         */
+        private final int columnNumber;
+
+        /**
+         * Creates an error location.
+         *
+         * @param lineNumber line number of the error
+         * @param columnNumber column number of the error
+         */
+        public ErrorLocation(int lineNumber, int columnNumber) {
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return columnNumber;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+    }
 }
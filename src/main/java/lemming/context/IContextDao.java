@@ -4,7 +4,9 @@ import lemming.data.IDao;
 import lemming.lemma.Lemma;
 import lemming.pos.Pos;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Defines a context DAO by extending interface IDao.
@@ -56,6 +58,14 @@ interface IContextDao extends IDao<Context> {
      */
     List<Context> findByLocationStart(String substring);
 
+    /**
+     * Returns a list of contexts for a list of IDs.
+     *
+     * @param ids list of context IDs
+     * @return A list of contexts in no particular order.
+     */
+    List<Context> findByIds(List<Integer> ids);
+
     /**
      * Returns a list of matching contexts for a given lemma.
      *
@@ -89,4 +99,40 @@ interface IContextDao extends IDao<Context> {
      * @return A changed comment.
      */
     Context removeComment(Context context, Comment comment);
+
+    /**
+     * Returns the IDs of contexts of some locations by location and fingerprint. A fingerprint shared by more than
+     * one context of a location is mapped to null.
+     *
+     * @param locations locations of contexts
+     * @return A map of context IDs by fingerprint for each location.
+     */
+    Map<String, Map<Long, Integer>> getIdsByFingerprint(Collection<String> locations);
+
+    /**
+     * Returns a page of contexts ordered by ID with the columns needed to check their hashes. Each row holds ID,
+     * version, preceding text, initial punctuation, keyword, end punctuation, following text, hash and fingerprint.
+     *
+     * @param afterId ID after which the page starts
+     * @param limit maximum number of rows
+     * @return A list of rows.
+     */
+    List<Object[]> findHashRows(Integer afterId, Integer limit);
+
+    /**
+     * Writes hashes and fingerprints of contexts. Each row holds ID, version, hash and fingerprint. Contexts whose
+     * version differs are left unchanged.
+     *
+     * @param rows rows of contexts
+     * @return The number of updated contexts.
+     */
+    int updateHashes(List<Object[]> rows);
+
+    /**
+     * Fills missing fingerprints of contexts and inbound contexts from their hashes in batches of rows ordered by ID.
+     *
+     * @param batchSize number of rows read per transaction
+     * @return The number of filled fingerprints.
+     */
+    int fillFingerprints(int batchSize);
 }
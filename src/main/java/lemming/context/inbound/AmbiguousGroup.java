@@ -0,0 +1,63 @@
+package lemming.context.inbound;
+
+import java.io.Serializable;
+
+/**
+ * A group of inbound contexts of a package sharing a hash with more than one possible match.
+ */
+public class AmbiguousGroup implements Serializable {
+    /**
+     * Hash shared by the contexts of a group.
+     */
+    private final String hash;
+
+    /**
+     * Number of inbound contexts of a package with the hash.
+     */
+    private final Integer inboundContextCount;
+
+    /**
+     * Number of contexts with the hash.
+     */
+    private final Integer contextCount;
+
+    /**
+     * Creates an ambiguous group.
+     *
+     * @param hash                hash shared by the contexts of a group
+     * @param inboundContextCount number of inbound contexts of a package with the hash
+     * @param contextCount        number of contexts with the hash
+     */
+    public AmbiguousGroup(String hash, Integer inboundContextCount, Integer contextCount) {
+        this.hash = hash;
+        this.inboundContextCount = inboundContextCount;
+        this.contextCount = contextCount;
+    }
+
+    /**
+     * Returns the hash shared by the contexts of a group.
+     *
+     * @return A hash string.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the number of inbound contexts of a package with the hash.
+     *
+     * @return A number of inbound contexts.
+     */
+    public Integer getInboundContextCount() {
+        return inboundContextCount;
+    }
+
+    /**
+     * Returns the number of contexts with the hash.
+     *
+     * @return A number of contexts.
+     */
+    public Integer getContextCount() {
+        return contextCount;
+    }
+}
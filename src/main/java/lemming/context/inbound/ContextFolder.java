@@ -14,6 +14,7 @@ import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.repeater.data.DataView;
 import org.apache.wicket.markup.repeater.data.IDataProvider;
+import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.StringResourceModel;
@@ -58,8 +59,20 @@ class ContextFolder extends Folder<BaseContext> {
      */
     @Override
     protected IModel<?> newLabelModel(IModel<BaseContext> model) {
-        BaseContext context = model.getObject();
-        return Model.of(String.format("<b>%d</b>: %s", context.getNumber(), context.getKeyword()));
+        // evaluated on render, as the tree is not yet set when the label is created
+        return new AbstractReadOnlyModel<String>() {
+            @Override
+            public String getObject() {
+                BaseContext context = model.getObject();
+
+                if (((ContextTreeProvider) tree.getProvider()).isRelocated(context)) {
+                    return String.format("<b>%s %d</b>: %s", context.getLocation(), context.getNumber(),
+                            context.getKeyword());
+                }
+
+                return String.format("<b>%d</b>: %s", context.getNumber(), context.getKeyword());
+            }
+        };
     }
 
     /**
@@ -2,9 +2,14 @@ package lemming.context.inbound;
 
 import lemming.ui.panel.ModalMessagePanel;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.StringResourceModel;
 
 public class ContextImportConfirmPanel extends ModalMessagePanel {
+    /**
+     * Mode of the confirmed import.
+     */
+    private IInboundContextPackageDao.ImportMode mode = IInboundContextPackageDao.ImportMode.REPLACE;
 
     public ContextImportConfirmPanel() {
         super("importConfirmPanel", DialogType.YES_NO);
@@ -15,8 +20,24 @@ public class ContextImportConfirmPanel extends ModalMessagePanel {
         return getString("Action.reallyImport");
     }
 
+    /**
+     * Shows the modal window for an import in a mode.
+     *
+     * @param target target that produces an Ajax response
+     * @param model model of the package of inbound contexts
+     * @param mode mode of the import
+     */
+    public void show(AjaxRequestTarget target, IModel<?> model, IInboundContextPackageDao.ImportMode mode) {
+        this.mode = mode;
+        show(target, model);
+    }
+
     @Override
     protected StringResourceModel getMessageModel() {
+        if (mode.equals(IInboundContextPackageDao.ImportMode.DELTA)) {
+            return new StringResourceModel("ContextImportConfirmPanel.deltaMessage");
+        }
+
         return new StringResourceModel("ContextImportConfirmPanel.message");
     }
 
@@ -31,7 +52,11 @@ public class ContextImportConfirmPanel extends ModalMessagePanel {
 
     @Override
     protected void onConfirm(AjaxRequestTarget target) {
-        new InboundContextPackageDao().importContexts((InboundContextPackage) getDefaultModelObject());
+        InboundContextPackage contextPackage = (InboundContextPackage) getDefaultModelObject();
+
+        VerificationCache.invalidate(contextPackage);
+        new InboundContextPackageDao().importContexts(contextPackage, mode);
+        RelocationIndex.rebuild();
         InboundContextPackagePanel panel = (InboundContextPackagePanel) getPage().get("contextPackagePanel");
         target.add(panel);
     }
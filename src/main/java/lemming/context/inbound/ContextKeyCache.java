@@ -0,0 +1,60 @@
+package lemming.context.inbound;
+
+import lemming.context.BaseContext;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A cache of comparison keys of contexts for a single verification run.
+ * <p>
+ * The comparison key of a context is built once and reused by every distance computation of the run. Contexts are
+ * identified by reference, as unsaved inbound contexts have no stable identity. A cache should be discarded when
+ * its run ends and must not be shared between threads while keys are added.
+ */
+public final class ContextKeyCache {
+    /**
+     * Delimiter between the parts of a comparison key.
+     */
+    private static final String DELIMITER = "#";
+
+    /**
+     * Comparison keys by context.
+     */
+    private final Map<BaseContext, char[]> keys = new IdentityHashMap<>();
+
+    /**
+     * Returns the comparison key of a context.
+     *
+     * @param context a context
+     * @return A comparison key.
+     */
+    public char[] get(BaseContext context) {
+        return keys.computeIfAbsent(context, key -> key.toString(DELIMITER).toCharArray());
+    }
+
+    /**
+     * Returns the comparison keys of an array of contexts.
+     *
+     * @param contexts an array of contexts
+     * @return An array of comparison keys.
+     */
+    char[][] getAll(BaseContext[] contexts) {
+        char[][] result = new char[contexts.length][];
+
+        for (int i = 0; i < contexts.length; i++) {
+            result[i] = get(contexts[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of cached comparison keys.
+     *
+     * @return A number of keys.
+     */
+    public int size() {
+        return keys.size();
+    }
+}
@@ -144,6 +144,7 @@ public class ContextTreePanel extends Panel {
             ContextTreeProvider provider = (ContextTreeProvider) tree.getProvider();
             final Iterator<? extends BaseContext> rootIterator = provider.getRoots();
             final InboundContextDao inboundContextDao = new InboundContextDao();
+            InboundContextPackage contextPackage = null;
 
             while (rootIterator.hasNext()) {
                 Context root = (Context) rootIterator.next();
@@ -155,10 +156,15 @@ public class ContextTreePanel extends Panel {
                         InboundContext child = (InboundContext) childrenIterator.next();
                         child.setMatch(root);
                         inboundContextDao.merge(child);
+                        contextPackage = child.getPackage();
                     }
                 }
             }
 
+            if (contextPackage != null) {
+                VerificationCache.invalidate(contextPackage);
+            }
+
             target.add(tree);
         }
     }
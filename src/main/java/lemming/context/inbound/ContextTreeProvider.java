@@ -24,12 +24,29 @@ public class ContextTreeProvider implements ITreeProvider<BaseContext> {
      */
     private MultivaluedMap<Context, InboundContext> map;
 
+    /**
+     * Location of inbound contexts, or null if unknown.
+     */
+    private String location;
+
     /**
      * Creates a tree provider for contexts.
      *
      * @param matchingTriples matching triples
      */
     public ContextTreeProvider(List<Triple> matchingTriples, List<Context> contextsWithoutComplement) {
+        this(null, matchingTriples, contextsWithoutComplement);
+    }
+
+    /**
+     * Creates a tree provider for contexts of a location.
+     *
+     * @param location location of inbound contexts
+     * @param matchingTriples matching triples
+     */
+    public ContextTreeProvider(String location, List<Triple> matchingTriples,
+                               List<Context> contextsWithoutComplement) {
+        this.location = location;
         this.contexts = new ArrayList<>();
         map = new MultivaluedHashMap<>();
         applyTriples(matchingTriples);
@@ -60,6 +77,16 @@ public class ContextTreeProvider implements ITreeProvider<BaseContext> {
         this.contexts.sort(new ContextComparator());
     }
 
+    /**
+     * Checks if a context belongs to another location than the inbound contexts.
+     *
+     * @param context a context
+     * @return True if the context was relocated; false otherwise.
+     */
+    public boolean isRelocated(BaseContext context) {
+        return location != null && context instanceof Context && !location.equals(context.getLocation());
+    }
+
     /**
      * Returns the roots of the tree.
      *
@@ -172,7 +199,7 @@ public class ContextTreeProvider implements ITreeProvider<BaseContext> {
      */
     private class ContextComparator implements Comparator<BaseContext> {
         /**
-         * Compares two contexts.
+         * Compares two contexts by location and number.
          *
          * @param context1 context 1
          * @param context2 context 2
@@ -180,7 +207,11 @@ public class ContextTreeProvider implements ITreeProvider<BaseContext> {
          */
         @Override
         public int compare(BaseContext context1, BaseContext context2) {
-            if (context1.getNumber() < context2.getNumber()) {
+            int locationResult = context1.getLocation().compareTo(context2.getLocation());
+
+            if (locationResult != 0) {
+                return locationResult;
+            } else if (context1.getNumber() < context2.getNumber()) {
                 return -1;
             } else if (context1.getNumber() > context2.getNumber()) {
                 return 1;
@@ -0,0 +1,186 @@
+package lemming.context.inbound;
+
+/**
+ * A reusable Levenshtein distance kernel with an optional cutoff.
+ * <p>
+ * Pairs whose shorter text has at most 64 characters are computed with the bit-parallel algorithm of Myers and
+ * Hyyrö. Longer pairs are computed with a banded dynamic programming table of two rows. Buffers are owned by the
+ * kernel and reused, so an instance must not be shared between threads.
+ */
+final class EditDistance {
+    /**
+     * Maximum pattern length of the bit-parallel algorithm.
+     */
+    private static final int WORD_SIZE = 64;
+
+    /**
+     * Match bit vectors of the bit-parallel algorithm indexed by character.
+     */
+    private final long[] peq = new long[Character.MAX_VALUE + 1];
+
+    /**
+     * Previous row of the banded table.
+     */
+    private int[] previousRow = new int[WORD_SIZE + 1];
+
+    /**
+     * Current row of the banded table.
+     */
+    private int[] currentRow = new int[WORD_SIZE + 1];
+
+    /**
+     * Returns the Levenshtein distance between two texts.
+     *
+     * @param text1 text 1
+     * @param text2 text 2
+     * @return The Levenshtein distance.
+     */
+    int distance(char[] text1, char[] text2) {
+        return distance(text1, text2, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the Levenshtein distance between two texts if it is not greater than a cutoff.
+     *
+     * @param text1 text 1
+     * @param text2 text 2
+     * @param cutoff maximum distance of interest
+     * @return The Levenshtein distance, or cutoff + 1 if the distance is greater than cutoff.
+     */
+    int distance(char[] text1, char[] text2, int cutoff) {
+        if (cutoff < 0) {
+            throw new IllegalArgumentException("Cutoff must not be negative.");
+        }
+
+        char[] pattern = text1.length <= text2.length ? text1 : text2;
+        char[] text = pattern == text1 ? text2 : text1;
+        int m = pattern.length;
+        int n = text.length;
+        int bound = Math.min(cutoff, n);
+
+        if (n - m > bound) {
+            return cutoff + 1;
+        } else if (m == 0) {
+            return n;
+        } else if (m <= WORD_SIZE) {
+            return bitParallelDistance(pattern, text, bound, cutoff);
+        } else {
+            return bandedDistance(pattern, text, bound, cutoff);
+        }
+    }
+
+    /**
+     * Computes a distance with the bit-parallel algorithm.
+     *
+     * @param pattern the shorter text with at most 64 characters
+     * @param text the longer text
+     * @param bound effective cutoff not greater than text length
+     * @param cutoff requested cutoff
+     * @return The Levenshtein distance, or cutoff + 1 if the distance is greater than bound.
+     */
+    private int bitParallelDistance(char[] pattern, char[] text, int bound, int cutoff) {
+        int m = pattern.length;
+        int n = text.length;
+        long last = 1L << (m - 1);
+        long pv = -1L;
+        long mv = 0L;
+        int score = m;
+
+        for (int i = 0; i < m; i++) {
+            peq[pattern[i]] |= 1L << i;
+        }
+
+        try {
+            for (int j = 0; j < n; j++) {
+                long eq = peq[text[j]];
+                long xv = eq | mv;
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+
+                if ((ph & last) != 0) {
+                    score++;
+                } else if ((mh & last) != 0) {
+                    score--;
+                }
+
+                if (score - (n - j - 1) > bound) {
+                    return cutoff + 1;
+                }
+
+                ph = (ph << 1) | 1L;
+                mh = mh << 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+        } finally {
+            for (int i = 0; i < m; i++) {
+                peq[pattern[i]] = 0L;
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * Computes a distance with a banded dynamic programming table.
+     *
+     * @param pattern the shorter text
+     * @param text the longer text
+     * @param bound effective cutoff not greater than text length
+     * @param cutoff requested cutoff
+     * @return The Levenshtein distance, or cutoff + 1 if the distance is greater than bound.
+     */
+    private int bandedDistance(char[] pattern, char[] text, int bound, int cutoff) {
+        int m = pattern.length;
+        int n = text.length;
+        int outside = bound + 1;
+
+        if (previousRow.length <= m) {
+            previousRow = new int[m + 1];
+            currentRow = new int[m + 1];
+        }
+
+        int[] previous = previousRow;
+        int[] current = currentRow;
+
+        for (int j = 0; j <= m; j++) {
+            previous[j] = Math.min(j, outside);
+        }
+
+        for (int i = 1; i <= n; i++) {
+            char character = text[i - 1];
+            int low = Math.max(1, i - bound);
+            int high = Math.min(m, i + bound);
+            int rowMinimum = outside;
+
+            if (low == 1) {
+                current[0] = Math.min(i, outside);
+                rowMinimum = current[0];
+            } else {
+                current[low - 1] = outside;
+            }
+
+            for (int j = low; j <= high; j++) {
+                int cost = pattern[j - 1] == character ? 0 : 1;
+                int value = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                current[j] = Math.min(value, outside);
+                rowMinimum = Math.min(rowMinimum, current[j]);
+            }
+
+            if (high < m) {
+                current[high + 1] = outside;
+            }
+
+            if (rowMinimum > bound) {
+                return cutoff + 1;
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return previous[m] > bound ? cutoff + 1 : previous[m];
+    }
+}
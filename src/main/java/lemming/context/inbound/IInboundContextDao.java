@@ -17,6 +17,14 @@ public interface IInboundContextDao extends IDao<InboundContext> {
     @SuppressWarnings("unused")
     void batchPersist(List<InboundContext> contexts);
 
+    /**
+     * Makes multiple context instances managed and persistent, together with IDs of their matching contexts.
+     *
+     * @param contexts context instances
+     * @param matchIds IDs of matching contexts in order of the context instances, or null for no match
+     */
+    void batchPersist(List<InboundContext> contexts, List<Integer> matchIds);
+
     /**
      * Finds complements of inbound contexts.
      *
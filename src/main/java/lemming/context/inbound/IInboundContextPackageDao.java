@@ -11,6 +11,22 @@ import java.util.List;
  */
 @SuppressWarnings("unused")
 public interface IInboundContextPackageDao extends IDao<InboundContextPackage> {
+    /**
+     * Modes of importing inbound contexts.
+     */
+    enum ImportMode {
+        /**
+         * Old contexts of locations with matched inbound contexts are deleted and new contexts are inserted.
+         */
+        REPLACE,
+
+        /**
+         * Matched contexts are updated in place if they changed; only new and removed contexts are inserted and
+         * deleted.
+         */
+        DELTA
+    }
+
     /**
      * Returns a list of inbound contexts of a context package.
      *
@@ -52,13 +68,21 @@ public interface IInboundContextPackageDao extends IDao<InboundContextPackage> {
     List<InboundContext> findUnmatchedContexts(InboundContextPackage contextPackage);
 
     /**
-     * Finds locations with inbound contexts without a match.
+     * Finds locations with inbound contexts without a match, including locations without any contexts.
      *
      * @param contextPackage a package of inbound contexts
      * @return A list context location strings.
      */
     List<String> findUnmatchedContextLocations(InboundContextPackage contextPackage);
 
+    /**
+     * Finds the IDs of contexts which are matched by inbound contexts of a package.
+     *
+     * @param contextPackage a package of inbound contexts
+     * @return A list of context IDs.
+     */
+    List<Integer> findMatchedContextIds(InboundContextPackage contextPackage);
+
     /**
      * Finds unmatched contexts by location ordered by number.
      *
@@ -89,16 +113,35 @@ public interface IInboundContextPackageDao extends IDao<InboundContextPackage> {
 
     /**
      * Matches inbound contexts of an inbound context package against contexts. The contexts are matched by a hash
-     * applied by class HashEntityListener.
+     * applied by class HashEntityListener. Inbound contexts matched on import are only verified against full hashes.
      *
      * @param contextPackage a package of inbound contexts
+     * @return Counts of matched, ambiguous and unmatched inbound contexts.
      */
-    void matchContextsByHash(InboundContextPackage contextPackage);
+    MatchResult matchContextsByHash(InboundContextPackage contextPackage);
 
     /**
-     * Imports inbound contexts of an inbound context package, removes old contexts and adds new contexts.
+     * Imports inbound contexts of an inbound context package, removes old contexts and adds new contexts. An
+     * interrupted import is resumed by importing the same package again.
      *
      * @param contextPackage a package of inbound contexts
      */
     void importContexts(InboundContextPackage contextPackage);
+
+    /**
+     * Imports inbound contexts of an inbound context package in a given mode. An interrupted import is resumed by
+     * importing the same package again in the same mode.
+     *
+     * @param contextPackage a package of inbound contexts
+     * @param mode import mode
+     */
+    void importContexts(InboundContextPackage contextPackage, ImportMode mode);
+
+    /**
+     * Removes an inbound context package and all of its inbound contexts with bulk deletes, without loading the
+     * inbound contexts.
+     *
+     * @param contextPackage a package of inbound contexts
+     */
+    void discard(InboundContextPackage contextPackage);
 }
@@ -18,7 +18,7 @@ import javax.persistence.Table;
 @SelectBeforeUpdate
 @OptimisticLocking(type = OptimisticLockType.VERSION)
 @Table(name = "inbound_context", indexes = {
-        @Index(columnList = "hash"),
+        @Index(columnList = "fingerprint"),
         @Index(columnList = "keyword, location")
 })
 public class InboundContext extends BaseContext {
@@ -36,6 +36,14 @@ public class InboundContext extends BaseContext {
     @JoinColumn(name = "match_id")
     private Context match;
 
+    /**
+     * Marks the first inbound context of a package matching a context, which updates it in a delta import. It is
+     * only written when an import is started.
+     */
+    @SuppressWarnings("unused")
+    @Column(name = "first_match", insertable = false, updatable = false)
+    private Boolean firstMatch;
+
     /**
      * Creates an instance of an inbound context.
      */
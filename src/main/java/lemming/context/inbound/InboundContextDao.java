@@ -10,7 +10,10 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.persistence.TypedQuery;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents a Data Access Object providing data operations for inbound contexts.
@@ -64,6 +67,16 @@ public class InboundContextDao extends GenericDao<InboundContext> implements IIn
      * @throws RuntimeException
      */
     public void batchPersist(List<InboundContext> contexts) throws RuntimeException {
+        batchPersist(contexts, Collections.nCopies(contexts.size(), null));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    public void batchPersist(List<InboundContext> contexts, List<Integer> matchIds) throws RuntimeException {
         EntityManager entityManager = EntityManagerListener.createEntityManager();
         EntityTransaction transaction = null;
         InboundContext currentContext = null;
@@ -73,9 +86,19 @@ public class InboundContextDao extends GenericDao<InboundContext> implements IIn
         try {
             transaction = entityManager.getTransaction();
             transaction.begin();
+            Set<Integer> existingIds = findExistingContextIds(entityManager, matchIds);
 
-            for (InboundContext context : contexts) {
+            for (int i = 0; i < contexts.size(); i++) {
+                InboundContext context = contexts.get(i);
+                Integer matchId = matchIds.get(i);
                 currentContext = context;
+
+                // contexts deleted since they were matched are left to matching by hash
+                if (matchId != null && existingIds.contains(matchId)) {
+                    // a reference writes the foreign key without loading the context
+                    context.setMatch(entityManager.getReference(Context.class, matchId));
+                }
+
                 entityManager.persist(context);
                 counter++;
 
@@ -105,6 +128,32 @@ public class InboundContextDao extends GenericDao<InboundContext> implements IIn
         }
     }
 
+    /**
+     * Returns the IDs of matching contexts which still exist. The contexts are locked in share mode, so that they
+     * aren’t deleted before the transaction commits.
+     *
+     * @param entityManager entity manager
+     * @param matchIds IDs of matching contexts, or null for no match
+     * @return A set of context IDs.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Integer> findExistingContextIds(EntityManager entityManager, List<Integer> matchIds) {
+        Set<Integer> ids = new HashSet<>(matchIds);
+        Set<Integer> existingIds = new HashSet<>();
+        ids.remove(null);
+
+        if (!ids.isEmpty()) {
+            List<Number> results = entityManager.createNativeQuery("SELECT id FROM context WHERE id IN (:ids) " +
+                    "LOCK IN SHARE MODE").setParameter("ids", ids).getResultList();
+
+            for (Number result : results) {
+                existingIds.add(result.intValue());
+            }
+        }
+
+        return existingIds;
+    }
+
     /**
      * {@inheritDoc}
      *
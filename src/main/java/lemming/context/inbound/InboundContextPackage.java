@@ -12,7 +12,9 @@ import javax.persistence.Table;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Information about a package of inbound contexts.
@@ -62,6 +64,22 @@ public class InboundContextPackage extends DatedEntity implements Serializable {
     @JoinColumn(name = "lock_user_id")
     private User lockUser;
 
+    /**
+     * Greatest ID of old contexts when an import of a package was started, or null if it wasn’t started yet. It is
+     * only written by the import, so that merging a stale package can’t reset it.
+     */
+    @Column(name = "import_max_context_id", insertable = false, updatable = false)
+    private Integer importMaxContextId;
+
+    /**
+     * Locations whose old contexts are replaced by an import of a package.
+     */
+    @ElementCollection
+    @CollectionTable(name = "inbound_context_package_replace_location",
+            joinColumns = @JoinColumn(name = "package_id"))
+    @Column(name = "location", length = 30, nullable = false)
+    private Set<String> importReplaceLocations = new HashSet<>();
+
     /**
      * A list of inbound contexts belonging to a context package.
      */
@@ -175,6 +193,24 @@ public class InboundContextPackage extends DatedEntity implements Serializable {
         this.lockUser = lockUser;
     }
 
+    /**
+     * Returns the greatest ID of old contexts when an import of a package was started.
+     *
+     * @return A context ID, or null if no import was started.
+     */
+    public Integer getImportMaxContextId() {
+        return importMaxContextId;
+    }
+
+    /**
+     * Returns the locations whose old contexts are replaced by an import of a package.
+     *
+     * @return A set of location strings.
+     */
+    public Set<String> getImportReplaceLocations() {
+        return importReplaceLocations;
+    }
+
     /**
      * Returns the inbound contexts belonging to a context package.
      *
@@ -1,9 +1,9 @@
 package lemming.context.inbound;
 
-import lemming.context.Comment;
-import lemming.context.Context;
 import lemming.data.EntityManagerListener;
 import lemming.data.GenericDao;
+import lemming.data.HashEntityListener;
+import lemming.data.Tombstone;
 import org.hibernate.StaleObjectStateException;
 import org.hibernate.UnresolvableObjectException;
 
@@ -12,12 +12,18 @@ import javax.persistence.EntityTransaction;
 import javax.persistence.TypedQuery;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
+import java.sql.Timestamp;
 import java.util.*;
 
 /**
  * Represents a Data Access Object providing data operations for inbound context packages.
  */
 public class InboundContextPackageDao extends GenericDao<InboundContextPackage> implements IInboundContextPackageDao {
+    /**
+     * Minimum number of inbound contexts imported in one transaction.
+     */
+    private static final int IMPORT_BATCH_SIZE = 5000;
+
     /**
      * Creates an instance of an InboundContextPackageDao.
      */
@@ -102,6 +108,40 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    public void discard(InboundContextPackage contextPackage) throws RuntimeException {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        EntityTransaction transaction = null;
+
+        try {
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+            entityManager.createNativeQuery("DELETE FROM inbound_context WHERE package_id = :packageId")
+                    .setParameter("packageId", contextPackage.getId()).executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM inbound_context_package_replace_location " +
+                    "WHERE package_id = :packageId")
+                    .setParameter("packageId", contextPackage.getId()).executeUpdate();
+            entityManager.createQuery("DELETE FROM InboundContextPackage p WHERE p.id = :id")
+                    .setParameter("id", contextPackage.getId()).executeUpdate();
+            transaction.commit();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -302,9 +342,9 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
         try {
             transaction = entityManager.getTransaction();
             transaction.begin();
+            // new and renumbered locations have no contexts yet, but their contexts may be relocated
             TypedQuery<String> query = entityManager.createQuery("SELECT DISTINCT(i.location) " +
                             "FROM InboundContext i WHERE i._package = :package AND i.match IS NULL " +
-                            "AND i.location IN (SELECT DISTINCT(c.location) FROM Context c) " +
                             "ORDER BY i.location",
                     String.class);
             List<String> locations = query.setParameter("package", contextPackage).getResultList();
@@ -323,6 +363,37 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    public List<Integer> findMatchedContextIds(InboundContextPackage contextPackage) {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        EntityTransaction transaction = null;
+
+        try {
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+            TypedQuery<Integer> query = entityManager.createQuery("SELECT DISTINCT(i.match.id) " +
+                    "FROM InboundContext i WHERE i._package = :package AND i.match IS NOT NULL", Integer.class);
+            List<Integer> contextIds = query.setParameter("package", contextPackage).getResultList();
+            transaction.commit();
+            return contextIds;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
     /**
      * Private helper method for findUnmatchedContextsByLocation(InboundContextPackage, String) and
      * groupUnmatchedContexts(InboundContextPackage, String).
@@ -523,80 +594,116 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
     }
 
     /**
-     * Removes matches from inbound contexts with multiple possible matches.
+     * Finds groups of inbound contexts of a package with more than one possible match. A group is ambiguous if its
+     * hash is shared by more than one context or by more than one inbound context of the package.
      *
-     * @param entityManager entityManager entity manager
+     * @param entityManager entity manager
      * @param contextPackage a package of inbound contexts
+     * @return A list of ambiguous groups.
      */
-    private void removeDuplicateMatches(EntityManager entityManager, InboundContextPackage contextPackage) {
-        TypedQuery<String> selectQuery = entityManager.createQuery("SELECT c.hash FROM Context c " +
-                "GROUP BY c.hash HAVING COUNT(c.hash) > 1", String.class);
-        List<String> duplicateHashes = selectQuery.getResultList();
-
-        for (String hash : duplicateHashes) {
-            javax.persistence.Query updateQuery = entityManager.createQuery("UPDATE InboundContext " +
-                    "SET match_id = NULL WHERE hash = :hash AND package_id = :package");
-            updateQuery.setParameter("hash", hash).setParameter("package", contextPackage).executeUpdate();
+    @SuppressWarnings("unchecked")
+    private List<AmbiguousGroup> findAmbiguousGroups(EntityManager entityManager,
+                                                     InboundContextPackage contextPackage) {
+        List<Object[]> rows = entityManager.createNativeQuery("SELECT i.hash, COUNT(DISTINCT i.id), " +
+                "COUNT(DISTINCT c.id) FROM inbound_context i " +
+                "INNER JOIN context c ON c.fingerprint = i.fingerprint AND c.hash = i.hash " +
+                "WHERE i.package_id = :package GROUP BY i.fingerprint, i.hash " +
+                "HAVING COUNT(DISTINCT i.id) > 1 OR COUNT(DISTINCT c.id) > 1")
+                .setParameter("package", contextPackage.getId()).getResultList();
+        List<AmbiguousGroup> groups = new ArrayList<>(rows.size());
+
+        for (Object[] row : rows) {
+            groups.add(new AmbiguousGroup((String) row[0], ((Number) row[1]).intValue(),
+                    ((Number) row[2]).intValue()));
         }
+
+        return groups;
     }
 
     /**
-     * Removes matches from inbound contexts with duplicate hashes.
+     * Removes matches from inbound contexts of ambiguous groups.
      *
-     * @param entityManager entityManager entity manager
+     * @param entityManager entity manager
      * @param contextPackage a package of inbound contexts
+     * @param groups ambiguous groups
      */
-    private void removeMatchesFromDuplicateContexts(EntityManager entityManager, InboundContextPackage contextPackage) {
-        TypedQuery<String> selectQuery = entityManager.createQuery("SELECT i.hash FROM InboundContext i " +
-                "GROUP BY i.hash HAVING COUNT(i.hash) > 1", String.class);
-        List<String> duplicateHashes = selectQuery.getResultList();
-
-        for (String hash : duplicateHashes) {
-            javax.persistence.Query updateQuery = entityManager.createQuery("UPDATE InboundContext " +
-                    "SET match_id = NULL WHERE hash = :hash AND package_id = :package");
-            updateQuery.setParameter("hash", hash).setParameter("package", contextPackage).executeUpdate();
+    private void removeAmbiguousMatches(EntityManager entityManager, InboundContextPackage contextPackage,
+                                        List<AmbiguousGroup> groups) {
+        Integer batchSize = 1000;
+        List<Long> fingerprints = new ArrayList<>(batchSize);
+        List<String> hashes = new ArrayList<>(batchSize);
+
+        for (Iterator<AmbiguousGroup> iterator = groups.iterator(); iterator.hasNext(); ) {
+            String hash = iterator.next().getHash();
+            fingerprints.add(HashEntityListener.getFingerprint(hash));
+            hashes.add(hash);
+
+            if (hashes.size() == batchSize || !iterator.hasNext()) {
+                // fingerprints select rows by index, hashes rule out fingerprint collisions
+                entityManager.createQuery("UPDATE InboundContext i SET i.match = NULL " +
+                        "WHERE i._package = :package AND i.fingerprint IN (:fingerprints) AND i.hash IN (:hashes)")
+                        .setParameter("package", contextPackage).setParameter("fingerprints", fingerprints)
+                        .setParameter("hashes", hashes).executeUpdate();
+                fingerprints.clear();
+                hashes.clear();
+            }
         }
     }
 
+    /**
+     * Counts matched, ambiguous and unmatched inbound contexts of a package.
+     *
+     * @param entityManager entity manager
+     * @param contextPackage a package of inbound contexts
+     * @param groups ambiguous groups
+     * @return A match result.
+     */
+    private MatchResult countMatches(EntityManager entityManager, InboundContextPackage contextPackage,
+                                     List<AmbiguousGroup> groups) {
+        Object[] counts = (Object[]) entityManager.createNativeQuery("SELECT COUNT(*), COUNT(i.match_id) " +
+                "FROM inbound_context i WHERE i.package_id = :package")
+                .setParameter("package", contextPackage.getId()).getSingleResult();
+        int total = ((Number) counts[0]).intValue();
+        int matched = ((Number) counts[1]).intValue();
+        int ambiguous = 0;
+
+        for (AmbiguousGroup group : groups) {
+            ambiguous += group.getInboundContextCount();
+        }
+
+        return new MatchResult(matched, ambiguous, total - matched - ambiguous, groups);
+    }
+
     /**
      * {@inheritDoc}
      *
      * @throws RuntimeException
      */
     @Override
-    public void matchContextsByHash(InboundContextPackage contextPackage) {
+    public MatchResult matchContextsByHash(InboundContextPackage contextPackage) {
         EntityManager entityManager = EntityManagerListener.createEntityManager();
         EntityTransaction transaction = null;
-        Context context = null;
-        Integer batchSize = 50;
-        Integer counter = 0;
 
         try {
             transaction = entityManager.getTransaction();
             transaction.begin();
-            TypedQuery<Context> selectQuery = entityManager.createQuery("SELECT c FROM Context c " +
-                    "INNER JOIN InboundContext i ON c.hash = i.hash WHERE i._package = :package", Context.class);
-            List<Context> contexts = selectQuery.setParameter("package", contextPackage).getResultList();
-
-            for (Iterator<Context> iterator = contexts.iterator(); iterator.hasNext(); context = iterator.next()) {
-                javax.persistence.Query updateQuery = entityManager.createQuery("UPDATE InboundContext " +
-                        "SET match_id = :id WHERE hash = :hash AND package_id = :package");
-
-                if (context != null) {
-                    updateQuery.setParameter("id", context.getId()).setParameter("hash", context.getHash())
-                            .setParameter("package", contextPackage).executeUpdate();
-                    counter++;
-                }
-
-                if (counter % batchSize == 0) {
-                    entityManager.flush();
-                    entityManager.clear();
-                }
-            }
-
-            removeDuplicateMatches(entityManager, contextPackage);
-            removeMatchesFromDuplicateContexts(entityManager, contextPackage);
+            // prematches by fingerprint are dropped unless fingerprints and full hashes are still equal,
+            // since the matched context may have been edited after it was loaded
+            entityManager.createNativeQuery("UPDATE inbound_context i INNER JOIN context c ON c.id = i.match_id " +
+                    "SET i.match_id = NULL WHERE i.package_id = :package " +
+                    "AND NOT (c.fingerprint <=> i.fingerprint AND c.hash <=> i.hash AND c.hash IS NOT NULL)")
+                    .setParameter("package", contextPackage.getId()).executeUpdate();
+            // match the rest of the package with one join update instead of one update per context
+            // fingerprints are joined by index, hashes rule out fingerprint collisions
+            entityManager.createNativeQuery("UPDATE inbound_context i INNER JOIN context c " +
+                    "ON c.fingerprint = i.fingerprint AND c.hash = i.hash " +
+                    "SET i.match_id = c.id WHERE i.package_id = :package AND i.match_id IS NULL")
+                    .setParameter("package", contextPackage.getId()).executeUpdate();
+            List<AmbiguousGroup> groups = findAmbiguousGroups(entityManager, contextPackage);
+            removeAmbiguousMatches(entityManager, contextPackage, groups);
+            MatchResult result = countMatches(entityManager, contextPackage, groups);
             transaction.commit();
+            return result;
         } catch (RuntimeException e) {
             e.printStackTrace();
 
@@ -605,12 +712,14 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
             }
 
             if (e instanceof StaleObjectStateException) {
-                panicOnSaveLockingError(context, e);
+                panicOnSaveLockingError(contextPackage, e);
             } else if (e instanceof UnresolvableObjectException) {
-                panicOnSaveUnresolvableObjectError(context, e);
+                panicOnSaveUnresolvableObjectError(contextPackage, e);
             } else {
                 throw e;
             }
+
+            return null;
         } finally {
             entityManager.close();
         }
@@ -623,60 +732,104 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
      */
     @Override
     public void importContexts(InboundContextPackage contextPackage) {
+        importContexts(contextPackage, ImportMode.REPLACE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Contexts are imported in batches of whole locations, and every batch is committed on its own. Inbound contexts
+     * are deleted with the batch they belong to, so the remaining inbound contexts of a package are the checkpoint
+     * from which an interrupted import is resumed by calling this method again. The greatest ID of old contexts and
+     * the locations whose old contexts are replaced are stored on the package when an import is started, and read
+     * back when it is resumed. Replaced locations without remaining inbound contexts were processed by earlier
+     * batches.
+     *
+     * @throws RuntimeException
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void importContexts(InboundContextPackage contextPackage, ImportMode mode) {
         EntityManager entityManager = EntityManagerListener.createEntityManager();
         EntityTransaction transaction = null;
 
         try {
             transaction = entityManager.getTransaction();
             transaction.begin();
-            TypedQuery<InboundContext> packageQuery = entityManager.createQuery("SELECT i FROM InboundContext i " +
-                    "WHERE i._package = :package", InboundContext.class);
-            List<InboundContext> inboundContextList = packageQuery.setParameter("package", contextPackage).getResultList();
-            List<Context> newContexts = new ArrayList<>();
-            Set<String> locations = new HashSet<>();
-
-            for (InboundContext inboundContext : inboundContextList) {
-                Context newContext = inboundContext.toContext();
-                Context match = inboundContext.getMatch();
-
-                if (match != null) {
-                    newContext.setLemma(match.getLemma());
-                    newContext.setLemmaString(match.getLemmaString());
-                    newContext.setPos(match.getPos());
-                    newContext.setPosString(match.getPosString());
-                    newContext.setInteresting(match.getInteresting());
-
-                    for (Comment comment : match.getComments()) {
-                        comment.getContexts().add(newContext);
-                    }
+            Number storedMaxContextId = (Number) entityManager.createNativeQuery("SELECT import_max_context_id " +
+                    "FROM inbound_context_package WHERE id = :package FOR UPDATE")
+                    .setParameter("package", contextPackage.getId()).getSingleResult();
+            Integer maxContextId;
+
+            if (storedMaxContextId == null) {
+                maxContextId = ((Number) entityManager.createNativeQuery("SELECT COALESCE(MAX(id), 0) " +
+                        "FROM context").getSingleResult()).intValue();
+                entityManager.createNativeQuery("INSERT INTO inbound_context_package_replace_location " +
+                        "(package_id, location) SELECT DISTINCT package_id, location FROM inbound_context " +
+                        "WHERE package_id = :package AND match_id IS NOT NULL")
+                        .setParameter("package", contextPackage.getId()).executeUpdate();
+                // the first match of a context is fixed before batches delete inbound contexts of earlier locations
+                entityManager.createNativeQuery("UPDATE inbound_context i INNER JOIN (SELECT MIN(j.id) AS id " +
+                        "FROM inbound_context j WHERE j.package_id = :package AND j.match_id IS NOT NULL " +
+                        "GROUP BY j.match_id) first_match ON first_match.id = i.id SET i.first_match = TRUE")
+                        .setParameter("package", contextPackage.getId()).executeUpdate();
+                entityManager.createNativeQuery("UPDATE inbound_context_package SET import_max_context_id = :maxId " +
+                        "WHERE id = :package")
+                        .setParameter("maxId", maxContextId).setParameter("package", contextPackage.getId())
+                        .executeUpdate();
+            } else {
+                maxContextId = storedMaxContextId.intValue();
+            }
 
-                    locations.add(newContext.getLocation());
-                } else {
-                    newContext.setInteresting(false);
-                }
+            Set<String> replaceLocations = new HashSet<>(entityManager.createNativeQuery("SELECT location " +
+                    "FROM inbound_context_package_replace_location WHERE package_id = :package")
+                    .setParameter("package", contextPackage.getId()).getResultList());
+            List<Object[]> locationCounts = entityManager.createNativeQuery("SELECT location, COUNT(*) " +
+                    "FROM inbound_context WHERE package_id = :package GROUP BY location ORDER BY location")
+                    .setParameter("package", contextPackage.getId()).getResultList();
+            transaction.commit();
 
-                newContexts.add(newContext);
-                inboundContext.setMatch(null);
-                inboundContext = entityManager.merge(inboundContext);
-                entityManager.remove(inboundContext);
-            }
+            // replaced locations of an interrupted import whose inbound contexts are gone were processed already
+            Set<String> processedReplaceLocations = new HashSet<>(replaceLocations);
+            locationCounts.forEach(locationCount -> processedReplaceLocations.remove((String) locationCount[0]));
+            List<String> batchLocations = new ArrayList<>();
+            int batchCount = 0;
+
+            for (Iterator<Object[]> iterator = locationCounts.iterator(); iterator.hasNext(); ) {
+                Object[] locationCount = iterator.next();
+                batchLocations.add((String) locationCount[0]);
+                batchCount += ((Number) locationCount[1]).intValue();
+
+                if (batchCount >= IMPORT_BATCH_SIZE || !iterator.hasNext()) {
+                    transaction.begin();
+
+                    if (mode.equals(ImportMode.DELTA)) {
+                        importDeltaBatch(entityManager, contextPackage, batchLocations, maxContextId,
+                                replaceLocations);
+                    } else {
+                        importBatch(entityManager, contextPackage, batchLocations, maxContextId, replaceLocations,
+                                processedReplaceLocations);
+                    }
 
-            entityManager.remove(entityManager.merge(contextPackage));
+                    transaction.commit();
 
-            for (String location : locations) {
-                TypedQuery<Context> contextQuery = entityManager.createQuery("SELECT c FROM Context c LEFT JOIN FETCH c.lemma " +
-                        "LEFT JOIN FETCH c.pos WHERE c.location = :location", Context.class);
-                List<Context> oldContextList = contextQuery.setParameter("location", location).getResultList();
+                    for (String location : batchLocations) {
+                        if (replaceLocations.contains(location)) {
+                            processedReplaceLocations.add(location);
+                        }
+                    }
 
-                for (Context oldContext : oldContextList) {
-                    entityManager.remove(oldContext);
+                    batchLocations.clear();
+                    batchCount = 0;
                 }
             }
 
-            for (Context newContext : newContexts) {
-                entityManager.persist(newContext);
-            }
-
+            transaction.begin();
+            entityManager.createNativeQuery("DELETE FROM inbound_context_package_replace_location " +
+                    "WHERE package_id = :package")
+                    .setParameter("package", contextPackage.getId()).executeUpdate();
+            entityManager.createQuery("DELETE FROM InboundContextPackage p WHERE p.id = :id")
+                    .setParameter("id", contextPackage.getId()).executeUpdate();
             transaction.commit();
         } catch (RuntimeException e) {
             e.printStackTrace();
@@ -690,4 +843,220 @@ public class InboundContextPackageDao extends GenericDao<InboundContextPackage>
             entityManager.close();
         }
     }
+
+    /**
+     * Imports the inbound contexts of a batch of locations.
+     * <p>
+     * New contexts are inserted from inbound contexts and take lemma, part of speech, interest and comments of their
+     * matches. Old contexts of locations with matched inbound contexts are deleted afterwards. An old context which
+     * was relocated from a location without matched inbound contexts is deleted as well, so that it isn’t left behind
+     * as a duplicate. An old context which is still the match of an inbound context of a later batch is kept until
+     * that batch is imported.
+     *
+     * @param entityManager entity manager
+     * @param contextPackage a package of inbound contexts
+     * @param batchLocations locations of the batch
+     * @param maxContextId greatest ID of old contexts
+     * @param replaceLocations locations whose old contexts are replaced
+     * @param processedReplaceLocations locations of earlier batches whose old contexts were replaced
+     */
+    @SuppressWarnings("unchecked")
+    private void importBatch(EntityManager entityManager, InboundContextPackage contextPackage,
+                             List<String> batchLocations, Integer maxContextId, Set<String> replaceLocations,
+                             Set<String> processedReplaceLocations) {
+        Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+        List<String> batchReplaceLocations = new ArrayList<>();
+
+        for (String location : batchLocations) {
+            if (replaceLocations.contains(location)) {
+                batchReplaceLocations.add(location);
+            }
+        }
+
+        // inbound UUIDs identify the new contexts inserted from inbound contexts
+        entityManager.createNativeQuery("UPDATE inbound_context SET uuid = UUID() " +
+                "WHERE package_id = :package AND location IN (:locations)")
+                .setParameter("package", contextPackage.getId()).setParameter("locations", batchLocations)
+                .executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO context (hash, fingerprint, uuid, version, location, " +
+                "number, type, keyword, preceding, following, init_punctuation, end_punctuation, speech, created, " +
+                "modified, pos_id, pos_string, lemma_id, lemma_string, interesting) " +
+                "SELECT i.hash, i.fingerprint, i.uuid, 0, i.location, i.number, i.type, i.keyword, i.preceding, " +
+                "i.following, i.init_punctuation, i.end_punctuation, i.speech, :timestamp, :timestamp, m.pos_id, " +
+                "m.pos_string, m.lemma_id, m.lemma_string, COALESCE(m.interesting, FALSE) " +
+                "FROM inbound_context i LEFT JOIN context m ON m.id = i.match_id " +
+                "WHERE i.package_id = :package AND i.location IN (:locations) ORDER BY i.id")
+                .setParameter("timestamp", timestamp).setParameter("package", contextPackage.getId())
+                .setParameter("locations", batchLocations).executeUpdate();
+        entityManager.createNativeQuery("INSERT IGNORE INTO context_comments (context_id, comment_id) " +
+                "SELECT c.id, cc.comment_id FROM inbound_context i INNER JOIN context c ON c.uuid = i.uuid " +
+                "INNER JOIN context_comments cc ON cc.context_id = i.match_id " +
+                "WHERE i.package_id = :package AND i.location IN (:locations)")
+                .setParameter("package", contextPackage.getId()).setParameter("locations", batchLocations)
+                .executeUpdate();
+
+        List<Integer> oldContextIds = new ArrayList<>();
+
+        if (!batchReplaceLocations.isEmpty()) {
+            List<Number> ids = entityManager.createNativeQuery("SELECT c.id FROM context c " +
+                    "WHERE c.id <= :maxId AND c.location IN (:locations) AND c.id NOT IN (" +
+                    "SELECT i.match_id FROM inbound_context i WHERE i.package_id = :package " +
+                    "AND i.location NOT IN (:batchLocations) AND i.match_id IS NOT NULL)")
+                    .setParameter("maxId", maxContextId).setParameter("locations", batchReplaceLocations)
+                    .setParameter("package", contextPackage.getId()).setParameter("batchLocations", batchLocations)
+                    .getResultList();
+            ids.forEach(id -> oldContextIds.add(id.intValue()));
+        }
+
+        if (!processedReplaceLocations.isEmpty()) {
+            // old matches in earlier batches which were kept for this batch
+            List<Number> ids = entityManager.createNativeQuery("SELECT DISTINCT m.id FROM inbound_context i " +
+                    "INNER JOIN context m ON m.id = i.match_id WHERE i.package_id = :package " +
+                    "AND i.location IN (:batchLocations) AND m.id <= :maxId AND m.location IN (:locations) " +
+                    "AND m.id NOT IN (SELECT j.match_id FROM inbound_context j WHERE j.package_id = :package " +
+                    "AND j.location NOT IN (:batchLocations) AND j.match_id IS NOT NULL)")
+                    .setParameter("package", contextPackage.getId()).setParameter("batchLocations", batchLocations)
+                    .setParameter("maxId", maxContextId)
+                    .setParameter("locations", new ArrayList<>(processedReplaceLocations)).getResultList();
+            ids.forEach(id -> oldContextIds.add(id.intValue()));
+        }
+
+        if (!replaceLocations.isEmpty()) {
+            // old matches relocated from locations which are not replaced, unless a later batch still needs them
+            List<Number> ids = entityManager.createNativeQuery("SELECT DISTINCT m.id FROM inbound_context i " +
+                    "INNER JOIN context m ON m.id = i.match_id WHERE i.package_id = :package " +
+                    "AND i.location IN (:batchLocations) AND m.id <= :maxId AND m.location NOT IN (:locations) " +
+                    "AND m.id NOT IN (SELECT j.match_id FROM inbound_context j WHERE j.package_id = :package " +
+                    "AND j.location NOT IN (:batchLocations) AND j.match_id IS NOT NULL)")
+                    .setParameter("package", contextPackage.getId()).setParameter("batchLocations", batchLocations)
+                    .setParameter("maxId", maxContextId)
+                    .setParameter("locations", new ArrayList<>(replaceLocations)).getResultList();
+            ids.forEach(id -> oldContextIds.add(id.intValue()));
+        }
+
+        entityManager.createNativeQuery("DELETE FROM inbound_context " +
+                "WHERE package_id = :package AND location IN (:locations)")
+                .setParameter("package", contextPackage.getId()).setParameter("locations", batchLocations)
+                .executeUpdate();
+        deleteContexts(entityManager, oldContextIds);
+    }
+
+    /**
+     * Imports the inbound contexts of a batch of locations, and changes only what differs from their matches.
+     * <p>
+     * The first inbound context of the package matching a context updates it in place, which keeps its ID, UUID,
+     * comments, lemma and part of speech. Contexts are only written if hash, location, number, type or speech differ.
+     * Any other inbound context is inserted as a new context, which takes lemma, part of speech, interest and
+     * comments of its match. First matches are marked once when an import is started, so a context claimed by
+     * inbound contexts of several locations is updated by the first of them in order of inbound context ID, whichever
+     * batch it belongs to, and copied for all others. Old contexts of locations with matched inbound contexts are
+     * deleted if no inbound context matches them.
+     *
+     * @param entityManager entity manager
+     * @param contextPackage a package of inbound contexts
+     * @param batchLocations locations of the batch
+     * @param maxContextId greatest ID of old contexts
+     * @param replaceLocations locations whose unmatched old contexts are removed
+     */
+    @SuppressWarnings("unchecked")
+    private void importDeltaBatch(EntityManager entityManager, InboundContextPackage contextPackage,
+                                  List<String> batchLocations, Integer maxContextId, Set<String> replaceLocations) {
+        Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+        List<String> batchReplaceLocations = new ArrayList<>();
+
+        for (String location : batchLocations) {
+            if (replaceLocations.contains(location)) {
+                batchReplaceLocations.add(location);
+            }
+        }
+
+        entityManager.createNativeQuery("UPDATE context c INNER JOIN inbound_context i ON i.match_id = c.id " +
+                "AND i.first_match = TRUE " +
+                "SET c.hash = i.hash, c.fingerprint = i.fingerprint, c.location = i.location, c.number = i.number, " +
+                "c.type = i.type, c.keyword = i.keyword, c.preceding = i.preceding, c.following = i.following, " +
+                "c.init_punctuation = i.init_punctuation, c.end_punctuation = i.end_punctuation, " +
+                "c.speech = i.speech, c.modified = :timestamp, c.version = c.version + 1 " +
+                "WHERE i.package_id = :package AND i.location IN (:locations) AND (c.hash <> i.hash " +
+                "OR c.location <> i.location OR c.number <> i.number OR c.type <> i.type OR c.speech <> i.speech)")
+                .setParameter("timestamp", timestamp).setParameter("package", contextPackage.getId())
+                .setParameter("locations", batchLocations).executeUpdate();
+
+        // inbound UUIDs identify the new contexts inserted from inbound contexts
+        entityManager.createNativeQuery("UPDATE inbound_context SET uuid = UUID() " +
+                "WHERE package_id = :package AND location IN (:locations)")
+                .setParameter("package", contextPackage.getId()).setParameter("locations", batchLocations)
+                .executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO context (hash, fingerprint, uuid, version, location, " +
+                "number, type, keyword, preceding, following, init_punctuation, end_punctuation, speech, created, " +
+                "modified, pos_id, pos_string, lemma_id, lemma_string, interesting) " +
+                "SELECT i.hash, i.fingerprint, i.uuid, 0, i.location, i.number, i.type, i.keyword, i.preceding, " +
+                "i.following, i.init_punctuation, i.end_punctuation, i.speech, :timestamp, :timestamp, m.pos_id, " +
+                "m.pos_string, m.lemma_id, m.lemma_string, COALESCE(m.interesting, FALSE) " +
+                "FROM inbound_context i LEFT JOIN context m ON m.id = i.match_id " +
+                "WHERE i.package_id = :package AND i.location IN (:locations) " +
+                "AND (i.match_id IS NULL OR i.first_match IS NOT TRUE) ORDER BY i.id")
+                .setParameter("timestamp", timestamp).setParameter("package", contextPackage.getId())
+                .setParameter("locations", batchLocations).executeUpdate();
+        entityManager.createNativeQuery("INSERT IGNORE INTO context_comments (context_id, comment_id) " +
+                "SELECT c.id, cc.comment_id FROM inbound_context i INNER JOIN context c ON c.uuid = i.uuid " +
+                "INNER JOIN context_comments cc ON cc.context_id = i.match_id " +
+                "WHERE i.package_id = :package AND i.location IN (:locations)")
+                .setParameter("package", contextPackage.getId()).setParameter("locations", batchLocations)
+                .executeUpdate();
+
+        List<Integer> oldContextIds = new ArrayList<>();
+
+        if (!batchReplaceLocations.isEmpty()) {
+            List<Number> ids = entityManager.createNativeQuery("SELECT c.id FROM context c " +
+                    "WHERE c.id <= :maxId AND c.location IN (:locations) AND c.id NOT IN (" +
+                    "SELECT i.match_id FROM inbound_context i WHERE i.package_id = :package " +
+                    "AND i.match_id IS NOT NULL)")
+                    .setParameter("maxId", maxContextId).setParameter("locations", batchReplaceLocations)
+                    .setParameter("package", contextPackage.getId()).getResultList();
+            ids.forEach(id -> oldContextIds.add(id.intValue()));
+        }
+
+        entityManager.createNativeQuery("DELETE FROM inbound_context " +
+                "WHERE package_id = :package AND location IN (:locations)")
+                .setParameter("package", contextPackage.getId()).setParameter("locations", batchLocations)
+                .executeUpdate();
+        deleteContexts(entityManager, oldContextIds);
+    }
+
+    /**
+     * Deletes contexts, their links to comments, and comments which are left without a context. Matches of inbound
+     * contexts of other packages which point to deleted contexts are removed, and tombstones of deleted contexts are
+     * inserted.
+     *
+     * @param entityManager entity manager
+     * @param contextIds IDs of contexts
+     */
+    @SuppressWarnings("unchecked")
+    private void deleteContexts(EntityManager entityManager, List<Integer> contextIds) {
+        Integer batchSize = 1000;
+        Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+
+        for (int i = 0; i < contextIds.size(); i += batchSize) {
+            List<Integer> ids = contextIds.subList(i, Math.min(i + batchSize, contextIds.size()));
+            List<Number> commentIds = entityManager.createNativeQuery("SELECT DISTINCT comment_id " +
+                    "FROM context_comments WHERE context_id IN (:ids)").setParameter("ids", ids).getResultList();
+
+            entityManager.createNativeQuery("UPDATE inbound_context SET match_id = NULL WHERE match_id IN (:ids)")
+                    .setParameter("ids", ids).executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM context_comments WHERE context_id IN (:ids)")
+                    .setParameter("ids", ids).executeUpdate();
+            entityManager.createNativeQuery("INSERT INTO tombstone (type, entity_id, deleted) " +
+                    "SELECT :type, id, :timestamp FROM context WHERE id IN (:ids)")
+                    .setParameter("type", Tombstone.Type.CONTEXT.name()).setParameter("timestamp", timestamp)
+                    .setParameter("ids", ids).executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM context WHERE id IN (:ids)")
+                    .setParameter("ids", ids).executeUpdate();
+
+            if (!commentIds.isEmpty()) {
+                entityManager.createNativeQuery("DELETE FROM comment WHERE id IN (:ids) " +
+                        "AND id NOT IN (SELECT comment_id FROM context_comments)")
+                        .setParameter("ids", commentIds).executeUpdate();
+            }
+        }
+    }
 }
@@ -133,7 +133,8 @@ public class InboundContextPackagePanel extends Panel {
                     popoverContent)));
             item.add(new VerifyButton(item.getModel()));
             item.add(new DiscardButton(item.getModel()));
-            item.add(new ImportButton(item.getModel()));
+            item.add(new ImportButton("importButton", item.getModel(), IInboundContextPackageDao.ImportMode.REPLACE));
+            item.add(new ImportButton("updateButton", item.getModel(), IInboundContextPackageDao.ImportMode.DELTA));
         }
 
         /**
@@ -180,12 +181,8 @@ public class InboundContextPackagePanel extends Panel {
          */
         @Override
         public void onClick(AjaxRequestTarget target) {
-            InboundContextPackageDao inboundContextPackageDao = new InboundContextPackageDao();
-
-            if (!inboundContextPackageDao.hasMatchedContexts(getModelObject())) {
-                inboundContextPackageDao.matchContextsByHash(getModelObject());
-            }
-
+            // matching by hash and alignment of locations happen in the background
+            VerificationCache.precompute(getModelObject());
             setResponsePage(new InboundContextVerificationPage(getModel()));
         }
 
@@ -220,6 +217,7 @@ public class InboundContextPackagePanel extends Panel {
          */
         @Override
         public void onClick(AjaxRequestTarget target) {
+            VerificationCache.invalidate(getModelObject());
             new InboundContextPackageDao().remove(getModelObject());
             target.add(InboundContextPackagePanel.this);
         }
@@ -239,13 +237,21 @@ public class InboundContextPackagePanel extends Panel {
      * A button which shows a modal panel for importing packages.
      */
     private class ImportButton extends IndicatingAjaxLink<InboundContextPackage> {
+        /**
+         * Mode of the import.
+         */
+        private final IInboundContextPackageDao.ImportMode mode;
+
         /**
          * Creates an import button.
          *
+         * @param id ID of the button
          * @param model model of the button
+         * @param mode mode of the import
          */
-        public ImportButton(IModel<InboundContextPackage> model) {
-            super("importButton", model);
+        public ImportButton(String id, IModel<InboundContextPackage> model, IInboundContextPackageDao.ImportMode mode) {
+            super(id, model);
+            this.mode = mode;
         }
 
         /**
@@ -257,7 +263,7 @@ public class InboundContextPackagePanel extends Panel {
         public void onClick(AjaxRequestTarget target) {
             BasePage page = (BasePage) InboundContextPackagePanel.this.getPage();
             ContextImportConfirmPanel panel = (ContextImportConfirmPanel) page.get("importConfirmPanel");
-            panel.show(target, getModel());
+            panel.show(target, getModel(), mode);
         }
 
         /**
@@ -1,18 +1,20 @@
 package lemming.context.inbound;
 
-import lemming.context.Context;
-import lemming.context.ContextDao;
 import lemming.context.ContextImportPage;
 import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.link.Link;
 import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.StringResourceModel;
+import org.apache.wicket.util.time.Duration;
 
-import javax.ws.rs.core.MultivaluedMap;
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A form for the verification of inbound contexts.
@@ -23,6 +25,11 @@ class InboundContextVerificationForm extends Form<InboundContextPackage> {
 
     MarkupContainer nothingToDoContainer;
 
+    /**
+     * Container showing the progress of a running verification.
+     */
+    MarkupContainer progressContainer;
+
     BackButton backButton;
 
     /**
@@ -36,8 +43,18 @@ class InboundContextVerificationForm extends Form<InboundContextPackage> {
         nothingToDoContainer = new WebMarkupContainer("nothingToDoContainer");
         backButton = new BackButton();
         repeatingView = new RepeatingView("repeater");
+        progressContainer = new WebMarkupContainer("progressContainer");
 
+        progressContainer.add(new Label("progressLabel", new AbstractReadOnlyModel<String>() {
+            @Override
+            public String getObject() {
+                return getProgressMessage(VerificationCache.get(getModelObject()));
+            }
+        }));
+        progressContainer.setOutputMarkupPlaceholderTag(true);
+        progressContainer.setVisible(false);
         add(repeatingView);
+        add(progressContainer);
     }
 
     @Override
@@ -46,32 +63,35 @@ class InboundContextVerificationForm extends Form<InboundContextPackage> {
         getPage().add(nothingToDoContainer.setVisible(false));
         getPage().add(backButton);
 
-        InboundContextPackage contextPackage = getModelObject();
-        List<String> unmatchedLocations = findUnmatchedLocations(contextPackage);
+        VerificationResult result = VerificationCache.get(getModelObject());
 
-        for (String location : unmatchedLocations) {
-            List<InboundContext> unmatchedContexts = new InboundContextPackageDao()
-                    .findUnmatchedContextsByLocation(contextPackage, location);
-            List<Context> possibleComplements = new InboundContextDao().findPossibleComplements(unmatchedContexts);
-
-            if (possibleComplements.size() == 0) {
-                List<InboundContext> allContexts = new InboundContextPackageDao()
-                        .findByLocation(contextPackage, location);
+        // retry a failed verification when the page is loaded again
+        if (result.getState().equals(VerificationResult.State.FAILED)) {
+            VerificationCache.invalidate(getModelObject());
+            result = VerificationCache.get(getModelObject());
+        }
 
-                // if all contexts are unmatched, add all possible complements from location
-                if (unmatchedContexts.size() == allContexts.size()) {
-                    possibleComplements = new ContextDao().findByLocation(location);
-                }
-            }
+        if (result.isDone()) {
+            addPanels(result);
+        } else {
+            repeatingView.setVisible(false);
+            progressContainer.setVisible(true);
+            progressContainer.add(new ProgressTimerBehavior());
+        }
+    }
 
-            List<Triple> matchingTriples = computeMatchingTriples(unmatchedContexts, possibleComplements);
-            List<InboundContext> contextsWithoutComplement = getContextsWithoutComplement(unmatchedContexts,
-                    matchingTriples);
-            List<Context> unmatchedComplements = getUnmatchedComplements(possibleComplements, matchingTriples);
-            ContextTreeProvider provider = new ContextTreeProvider(matchingTriples, unmatchedComplements);
+    /**
+     * Adds a context tree panel for each location of a verification result.
+     *
+     * @param result a finished verification result
+     */
+    private void addPanels(VerificationResult result) {
+        for (LocationAlignment alignment : result.copyAlignments()) {
+            ContextTreeProvider provider = new ContextTreeProvider(alignment.getLocation(),
+                    alignment.getMatchingTriples(), alignment.getUnmatchedComplements());
 
-            repeatingView.add(new ContextTreePanel(repeatingView.newChildId(), location, provider,
-                    contextsWithoutComplement));
+            repeatingView.add(new ContextTreePanel(repeatingView.newChildId(), alignment.getLocation(), provider,
+                    new ArrayList<>(alignment.getContextsWithoutComplement())));
         }
 
         if (repeatingView.size() == 0) {
@@ -81,50 +101,53 @@ class InboundContextVerificationForm extends Form<InboundContextPackage> {
     }
 
     /**
-     * Finds and sets locations with unmatched contexts.
+     * Returns a progress message for a verification result.
      *
-     * @param contextPackage package of inbound contexts
+     * @param result a verification result
+     * @return A progress message.
      */
-    private List<String> findUnmatchedLocations(InboundContextPackage contextPackage) {
-        return new InboundContextPackageDao().findUnmatchedContextLocations(contextPackage);
+    private String getProgressMessage(VerificationResult result) {
+        if (result.getState().equals(VerificationResult.State.FAILED)) {
+            return getString("InboundContextVerificationForm.failed");
+        } else if (result.getLocationCount() < 0) {
+            return getString("InboundContextVerificationForm.matching");
+        } else {
+            return new StringResourceModel("InboundContextVerificationForm.progress", this)
+                    .setParameters(String.valueOf(result.getVerifiedLocationCount()),
+                            String.valueOf(result.getLocationCount())).getString();
+        }
     }
 
     /**
-     * Computes matching triples for a list of contexts.
-     *
-     * @param contexts a list of inbound contexts
-     * @param complements a list of context complements
-     * @return A list of matching triples.
+     * A timer behavior which polls a running verification and reloads the page when it is done.
      */
-    private List<Triple> computeMatchingTriples(List<InboundContext> contexts, List<Context> complements) {
-        if (complements != null) {
-            MultivaluedMap<Integer, Triple> distanceMap = MatchHelper.getTriples(complements, contexts);
-            return MatchHelper.computeMatchingTriples(distanceMap);
-        }
-
-        return new ArrayList<>();
-    }
-
-    private List<InboundContext> getContextsWithoutComplement(List<InboundContext> inboundContexts,
-                                                              List<Triple> matchingTriples) {
-        List<InboundContext> unmatchedInboundContexts = new ArrayList<>(inboundContexts);
-
-        for (Triple triple : matchingTriples) {
-            unmatchedInboundContexts.remove(triple.getInboundContext());
+    private class ProgressTimerBehavior extends AbstractAjaxTimerBehavior {
+        /**
+         * Creates a progress timer behavior.
+         */
+        public ProgressTimerBehavior() {
+            super(Duration.seconds(1));
         }
 
-        return unmatchedInboundContexts;
-    }
-
-    private List<Context> getUnmatchedComplements(List<Context> complements,
-                                                  List<Triple> matchingTriples) {
-        List<Context> unmatchedComplements = new ArrayList<>(complements);
-
-        for (Triple triple : matchingTriples) {
-            unmatchedComplements.remove(triple.getContext());
+        /**
+         * Called on timer.
+         *
+         * @param target target that produces an Ajax response
+         */
+        @Override
+        protected void onTimer(AjaxRequestTarget target) {
+            VerificationResult result = VerificationCache.get(getModelObject());
+
+            if (result.isDone()) {
+                stop(target);
+                setResponsePage(new InboundContextVerificationPage(InboundContextVerificationForm.this.getModel()));
+            } else if (result.getState().equals(VerificationResult.State.FAILED)) {
+                stop(target);
+                target.add(progressContainer);
+            } else {
+                target.add(progressContainer);
+            }
         }
-
-        return unmatchedComplements;
     }
 
     private class BackButton extends Link<Void> {
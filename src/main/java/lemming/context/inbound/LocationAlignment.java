@@ -0,0 +1,83 @@
+package lemming.context.inbound;
+
+import lemming.context.Context;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Candidate alignment of the unmatched inbound contexts of a location.
+ */
+public class LocationAlignment implements Serializable {
+    /**
+     * Location of contexts.
+     */
+    private final String location;
+
+    /**
+     * Matching triples of contexts and inbound contexts.
+     */
+    private final List<Triple> matchingTriples;
+
+    /**
+     * Contexts without a matching inbound context.
+     */
+    private final List<Context> unmatchedComplements;
+
+    /**
+     * Inbound contexts without a matching context.
+     */
+    private final List<InboundContext> contextsWithoutComplement;
+
+    /**
+     * Creates a location alignment.
+     *
+     * @param location location of contexts
+     * @param matchingTriples matching triples of contexts and inbound contexts
+     * @param unmatchedComplements contexts without a matching inbound context
+     * @param contextsWithoutComplement inbound contexts without a matching context
+     */
+    public LocationAlignment(String location, List<Triple> matchingTriples, List<Context> unmatchedComplements,
+                             List<InboundContext> contextsWithoutComplement) {
+        this.location = location;
+        this.matchingTriples = matchingTriples;
+        this.unmatchedComplements = unmatchedComplements;
+        this.contextsWithoutComplement = contextsWithoutComplement;
+    }
+
+    /**
+     * Returns the location of contexts.
+     *
+     * @return A location.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns the matching triples of contexts and inbound contexts.
+     *
+     * @return A list of triples.
+     */
+    public List<Triple> getMatchingTriples() {
+        return matchingTriples;
+    }
+
+    /**
+     * Returns the contexts without a matching inbound context.
+     *
+     * @return A list of contexts.
+     */
+    public List<Context> getUnmatchedComplements() {
+        return unmatchedComplements;
+    }
+
+    /**
+     * Returns the inbound contexts without a matching context.
+     *
+     * @return A list of inbound contexts.
+     */
+    public List<InboundContext> getContextsWithoutComplement() {
+        return contextsWithoutComplement;
+    }
+}
@@ -1,41 +1,154 @@
 package lemming.context.inbound;
 
-import lemming.context.BaseContext;
 import lemming.context.Context;
-import name.fraser.neil.plaintext.diff_match_patch;
 
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * A helper class for context matching.
  */
 public abstract class MatchHelper {
     /**
-     * Returns the Levenshtein Distance between two texts.
+     * Strategies for matching contexts.
+     */
+    public enum Strategy {
+        /**
+         * Optimal order-preserving alignment of contexts.
+         */
+        ALIGNMENT,
+
+        /**
+         * Greedy application of triples in order of lowest distance.
+         */
+        GREEDY
+    }
+
+    /**
+     * Strategy used for matching contexts if none is given.
+     */
+    private static volatile Strategy defaultStrategy = Strategy.ALIGNMENT;
+    /**
+     * Edit distance kernel of the current thread.
+     */
+    private static final ThreadLocal<EditDistance> EDIT_DISTANCE = ThreadLocal.withInitial(EditDistance::new);
+
+    /**
+     * Minimum number of context pairs for which distances are computed in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * Maximum number of context pairs computed as one tile.
+     */
+    private static final int TILE_SIZE = 1024;
+
+    /**
+     * Maximum distance of a relocated context relative to the length of the longer comparison key.
+     */
+    private static final double RELOCATION_RATIO = 0.2;
+
+    /**
+     * Maximum number of threads computing distances for all requests.
+     */
+    private static int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * Maximum number of threads computing distances for a single verification, including the calling thread.
+     */
+    private static int verificationParallelism = Math.max(1, parallelism / 2);
+
+    /**
+     * Pool shared by all requests which computes distances in parallel.
+     */
+    private static ForkJoinPool pool;
+
+    /**
+     * Sets the maximum number of threads computing distances for all requests. A value of 1 disables parallel
+     * computation.
+     *
+     * @param parallelism maximum number of threads
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive.");
+        }
+
+        shutdown();
+        MatchHelper.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the maximum number of threads computing distances for a single verification, including the calling
+     * thread. Keeps a single large verification from occupying every thread of the shared pool.
+     *
+     * @param verificationParallelism maximum number of threads
+     */
+    public static synchronized void setVerificationParallelism(int verificationParallelism) {
+        if (verificationParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive.");
+        }
+
+        MatchHelper.verificationParallelism = verificationParallelism;
+    }
+
+    /**
+     * Returns the strategy used for matching contexts if none is given.
+     *
+     * @return A matching strategy.
+     */
+    public static Strategy getDefaultStrategy() {
+        return defaultStrategy;
+    }
+
+    /**
+     * Sets the strategy used for matching contexts if none is given.
+     *
+     * @param strategy matching strategy
+     */
+    public static void setDefaultStrategy(Strategy strategy) {
+        defaultStrategy = strategy;
+    }
+
+    /**
+     * Shuts down the shared pool. A new pool is created when distances are computed again.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns the shared pool, or null if distances are computed sequentially.
      *
-     * @param text1 text 1
-     * @param text2 text 2
-     * @return The Levenshtein distance.
+     * @return A fork/join pool.
      */
-    private static Integer getLeventstheinDistance(String text1, String text2) {
-        diff_match_patch diffMatchPatch = new diff_match_patch();
-        LinkedList<diff_match_patch.Diff> diffs = diffMatchPatch.diff_main(text1, text2, false);
-        return diffMatchPatch.diff_levenshtein(diffs);
+    private static synchronized ForkJoinPool getPool() {
+        if (parallelism > 1 && pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        return pool;
     }
 
     /**
-     * Returns the Levenshtein distance between two contexts.
+     * Returns the Levenshtein distance between the comparison keys of two contexts if it is not greater than a cutoff.
      *
-     * @param context1 context 1
-     * @param context2 context 2
-     * @return The Levenshtein distance.
+     * @param key1 comparison key of context 1
+     * @param key2 comparison key of context 2
+     * @param cutoff maximum distance of interest
+     * @return The Levenshtein distance, or cutoff + 1 if the distance is greater than cutoff.
+     * @see ContextKeyCache
      */
-    private static Integer getDistance(BaseContext context1, BaseContext context2) {
-        String context1String = context1.toString("#");
-        String context2String = context2.toString("#");
-        return getLeventstheinDistance(context1String, context2String);
+    private static int getDistance(char[] key1, char[] key2, int cutoff) {
+        return EDIT_DISTANCE.get().distance(key1, key2, cutoff);
     }
 
     /**
@@ -47,18 +160,153 @@ public abstract class MatchHelper {
      */
     public static MultivaluedMap<Integer, Triple> getTriples(List<Context> contexts,
                                                              List<InboundContext> inboundContexts) {
+        return getTriples(contexts, inboundContexts, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Computes distances between contexts. Pairs of contexts with a distance greater than a maximum distance are
+     * abandoned early and left out.
+     *
+     * @param contexts list of contexts
+     * @param inboundContexts list of inbound contexts
+     * @param maxDistance maximum distance
+     * @return A map of triples.
+     */
+    public static MultivaluedMap<Integer, Triple> getTriples(List<Context> contexts,
+                                                             List<InboundContext> inboundContexts,
+                                                             int maxDistance) {
+        return getTriples(contexts, inboundContexts, maxDistance, new ContextKeyCache());
+    }
+
+    /**
+     * Computes distances between contexts with comparison keys from a cache. Pairs of contexts with a distance
+     * greater than a maximum distance are abandoned early and left out.
+     *
+     * @param contexts list of contexts
+     * @param inboundContexts list of inbound contexts
+     * @param maxDistance maximum distance
+     * @param keyCache cache of comparison keys
+     * @return A map of triples.
+     */
+    public static MultivaluedMap<Integer, Triple> getTriples(List<Context> contexts,
+                                                             List<InboundContext> inboundContexts,
+                                                             int maxDistance, ContextKeyCache keyCache) {
         MultivaluedMap<Integer, Triple> distanceMap = new MultivaluedHashMap<>();
+        Context[] contextArray = contexts.toArray(new Context[0]);
+        InboundContext[] inboundContextArray = inboundContexts.toArray(new InboundContext[0]);
+        int[][] distances = getDistances(contextArray, inboundContextArray, maxDistance, keyCache);
 
-        for (int i = 0; i < contexts.size(); i++) {
-            for (int j = 0; j < inboundContexts.size(); j++) {
-                Integer distance = getDistance(contexts.get(i), inboundContexts.get(j));
-                distanceMap.add(distance, new Triple(contexts.get(i), i, distance, inboundContexts.get(j), j));
+        // triples are added in row-major order, regardless of how distances were computed
+        for (int i = 0; i < contextArray.length; i++) {
+            for (int j = 0; j < inboundContextArray.length; j++) {
+                int distance = distances[i][j];
+
+                if (distance <= maxDistance) {
+                    distanceMap.add(distance, new Triple(contextArray[i], i, distance, inboundContextArray[j], j));
+                }
             }
         }
 
         return distanceMap;
     }
 
+    /**
+     * Computes a matrix of distances between contexts.
+     *
+     * @param contexts array of contexts
+     * @param inboundContexts array of inbound contexts
+     * @param maxDistance maximum distance
+     * @param keyCache cache of comparison keys
+     * @return A matrix of distances indexed by context and inbound context.
+     */
+    private static int[][] getDistances(Context[] contexts, InboundContext[] inboundContexts, int maxDistance,
+                                        ContextKeyCache keyCache) {
+        int[][] distances = new int[contexts.length][inboundContexts.length];
+        computeDistances(keyCache.getAll(contexts), keyCache.getAll(inboundContexts), maxDistance,
+                0, contexts.length, 0, inboundContexts.length, distances);
+        return distances;
+    }
+
+    /**
+     * Computes distances between a block of context keys and a block of inbound context keys. Large blocks are split
+     * into tiles which are computed in parallel.
+     *
+     * @param contextKeys comparison keys of contexts
+     * @param inboundContextKeys comparison keys of inbound contexts
+     * @param maxDistance maximum distance
+     * @param rowFrom first context
+     * @param rowTo context after the last context
+     * @param columnFrom first inbound context
+     * @param columnTo inbound context after the last inbound context
+     * @param distances matrix which receives the distances of the block, indexed relative to the block
+     */
+    private static void computeDistances(char[][] contextKeys, char[][] inboundContextKeys, int maxDistance,
+                                         int rowFrom, int rowTo, int columnFrom, int columnTo, int[][] distances) {
+        int width = columnTo - columnFrom;
+        long pairCount = (long) (rowTo - rowFrom) * width;
+
+        if (width == 0 || pairCount == 0) {
+            return;
+        }
+
+        int tileCount = (pairCount < PARALLEL_THRESHOLD) ? 1 : (int) ((pairCount + TILE_SIZE - 1) / TILE_SIZE);
+        long tileSize = (tileCount == 1) ? pairCount : TILE_SIZE;
+
+        computeTiles(tileCount, tile -> {
+            long pairTo = Math.min(pairCount, (tile + 1) * tileSize);
+
+            // pairs are numbered in row-major order within the block
+            for (long pair = tile * tileSize; pair < pairTo; pair++) {
+                int row = (int) (pair / width);
+                int column = (int) (pair % width);
+                distances[row][column] = getDistance(contextKeys[rowFrom + row],
+                        inboundContextKeys[columnFrom + column], maxDistance);
+            }
+        });
+    }
+
+    /**
+     * Computes the tiles of a computation. The calling thread computes tiles itself, and at most the verification
+     * parallelism minus one helpers of the shared pool join it. Thus a single large verification can’t occupy every
+     * thread of the pool, and every verification makes progress while the pool is busy with others.
+     *
+     * @param tileCount number of tiles
+     * @param tile computation of a tile by its index
+     */
+    private static void computeTiles(int tileCount, IntConsumer tile) {
+        ForkJoinPool pool = getPool();
+        int helperCount;
+
+        synchronized (MatchHelper.class) {
+            helperCount = Math.min(verificationParallelism, tileCount) - 1;
+        }
+
+        if (pool == null || helperCount < 1) {
+            for (int i = 0; i < tileCount; i++) {
+                tile.accept(i);
+            }
+
+            return;
+        }
+
+        TileRun run = new TileRun(tileCount, tile);
+        List<ForkJoinTask<?>> helpers = new ArrayList<>(helperCount);
+
+        for (int i = 0; i < helperCount; i++) {
+            helpers.add(pool.submit(run::work));
+        }
+
+        run.work();
+        run.await();
+
+        // helpers which haven’t started yet have nothing left to do
+        for (ForkJoinTask<?> helper : helpers) {
+            helper.cancel(false);
+        }
+
+        run.rethrow();
+    }
+
     /**
      * Sorts a list of triples by number attribute of a triple’s first context.
      *
@@ -105,6 +353,133 @@ public abstract class MatchHelper {
         return true;
     }
 
+    /**
+     * Computes matching triples for contexts and inbound contexts with the default strategy.
+     *
+     * @param contexts list of contexts
+     * @param inboundContexts list of inbound contexts
+     * @return A list of triples.
+     */
+    public static List<Triple> computeMatchingTriples(List<Context> contexts, List<InboundContext> inboundContexts) {
+        return computeMatchingTriples(contexts, inboundContexts, defaultStrategy);
+    }
+
+    /**
+     * Computes matching triples for contexts and inbound contexts. Matching triples never cross each other.
+     *
+     * @param contexts list of contexts
+     * @param inboundContexts list of inbound contexts
+     * @param strategy matching strategy
+     * @return A list of triples.
+     */
+    public static List<Triple> computeMatchingTriples(List<Context> contexts, List<InboundContext> inboundContexts,
+                                                      Strategy strategy) {
+        return computeMatchingTriples(contexts, inboundContexts, strategy, new ContextKeyCache());
+    }
+
+    /**
+     * Computes matching triples for contexts and inbound contexts with comparison keys from a cache. Matching
+     * triples never cross each other.
+     *
+     * @param contexts list of contexts
+     * @param inboundContexts list of inbound contexts
+     * @param strategy matching strategy
+     * @param keyCache cache of comparison keys
+     * @return A list of triples.
+     */
+    public static List<Triple> computeMatchingTriples(List<Context> contexts, List<InboundContext> inboundContexts,
+                                                      Strategy strategy, ContextKeyCache keyCache) {
+        if (strategy.equals(Strategy.GREEDY)) {
+            return computeMatchingTriples(getTriples(contexts, inboundContexts, Integer.MAX_VALUE, keyCache));
+        }
+
+        Context[] contextArray = contexts.toArray(new Context[0]);
+        InboundContext[] inboundContextArray = inboundContexts.toArray(new InboundContext[0]);
+        char[][] contextKeys = keyCache.getAll(contextArray);
+        char[][] inboundContextKeys = keyCache.getAll(inboundContextArray);
+        // the distance of two keys is never greater than the length of the longer key, so every match is permitted
+        int maxDistance = Math.max(getMaxLength(contextKeys), getMaxLength(inboundContextKeys));
+
+        int[] matches = MonotoneAlignment.align((rowFrom, rowTo, columnFrom, columnTo, block) ->
+                        computeDistances(contextKeys, inboundContextKeys, maxDistance, rowFrom, rowTo, columnFrom,
+                                columnTo, block), contextArray.length, inboundContextArray.length, maxDistance);
+        List<Triple> triples = new ArrayList<>();
+
+        for (int i = 0; i < matches.length; i++) {
+            int j = matches[i];
+
+            if (j >= 0) {
+                int distance = getDistance(contextKeys[i], inboundContextKeys[j], maxDistance);
+                triples.add(new Triple(contextArray[i], i, distance, inboundContextArray[j], j));
+            }
+        }
+
+        return triples;
+    }
+
+    /**
+     * Returns the length of the longest comparison key.
+     *
+     * @param keys array of comparison keys
+     * @return A length, or 0 if there are no keys.
+     */
+    private static int getMaxLength(char[][] keys) {
+        int maxLength = 0;
+
+        for (char[] key : keys) {
+            maxLength = Math.max(maxLength, key.length);
+        }
+
+        return maxLength;
+    }
+
+    /**
+     * Computes triples for inbound contexts and candidate contexts from other locations. Pairs are applied in
+     * order of lowest distance, so that every inbound context and every candidate is matched at most once. Pairs
+     * with a distance greater than a fifth of the longer comparison key are left out.
+     *
+     * @param inboundContexts list of inbound contexts
+     * @param candidates list of candidate contexts for each inbound context
+     * @param keyCache cache of comparison keys
+     * @return A list of triples in order of inbound contexts.
+     */
+    public static List<Triple> computeRelocationTriples(List<InboundContext> inboundContexts,
+                                                        List<List<Context>> candidates, ContextKeyCache keyCache) {
+        List<Triple> pairs = new ArrayList<>();
+
+        for (int j = 0; j < inboundContexts.size(); j++) {
+            char[] inboundKey = keyCache.get(inboundContexts.get(j));
+
+            for (Context candidate : candidates.get(j)) {
+                char[] candidateKey = keyCache.get(candidate);
+                int cutoff = (int) (RELOCATION_RATIO * Math.max(inboundKey.length, candidateKey.length));
+                int distance = getDistance(candidateKey, inboundKey, cutoff);
+
+                if (distance <= cutoff) {
+                    pairs.add(new Triple(candidate, -1, distance, inboundContexts.get(j), j));
+                }
+            }
+        }
+
+        pairs.sort(Comparator.comparing(Triple::getDistance).thenComparing(Triple::getInboundContextIndex)
+                .thenComparing(triple -> triple.getContext().getId()));
+        Set<Integer> matchedContextIds = new HashSet<>();
+        Set<Integer> matchedInboundContextIndexes = new HashSet<>();
+        List<Triple> triples = new ArrayList<>();
+
+        for (Triple pair : pairs) {
+            if (!matchedContextIds.contains(pair.getContext().getId()) &&
+                    !matchedInboundContextIndexes.contains(pair.getInboundContextIndex())) {
+                matchedContextIds.add(pair.getContext().getId());
+                matchedInboundContextIndexes.add(pair.getInboundContextIndex());
+                triples.add(pair);
+            }
+        }
+
+        triples.sort(Comparator.comparing(Triple::getInboundContextIndex));
+        return triples;
+    }
+
     /**
      * Applies triples in order of lowest distance if they don’t have an intersection with each other.
      *
@@ -160,4 +535,108 @@ public abstract class MatchHelper {
     public static boolean hasIdenticalKeywords(Triple triple) {
         return triple.getContext().getKeyword().equals(triple.getInboundContext().getKeyword());
     }
+
+    /**
+     * A run of tiles which are claimed one by one by the calling thread and its helpers.
+     */
+    private static class TileRun {
+        /**
+         * Number of tiles.
+         */
+        private final int tileCount;
+
+        /**
+         * Computation of a tile by its index.
+         */
+        private final IntConsumer tile;
+
+        /**
+         * Index of the next unclaimed tile.
+         */
+        private final AtomicInteger nextTile = new AtomicInteger();
+
+        /**
+         * Number of tiles which are being computed.
+         */
+        private int activeCount = 0;
+
+        /**
+         * First failure of a tile, or null.
+         */
+        private volatile Throwable failure;
+
+        /**
+         * Creates a run of tiles.
+         *
+         * @param tileCount number of tiles
+         * @param tile computation of a tile by its index
+         */
+        private TileRun(int tileCount, IntConsumer tile) {
+            this.tileCount = tileCount;
+            this.tile = tile;
+        }
+
+        /**
+         * Claims and computes tiles until no tile is left. After a failure, remaining tiles are skipped.
+         */
+        private void work() {
+            while (true) {
+                synchronized (this) {
+                    activeCount++;
+                }
+
+                int index = nextTile.getAndIncrement();
+
+                try {
+                    if (index >= tileCount) {
+                        return;
+                    } else if (failure == null) {
+                        tile.accept(index);
+                    }
+                } catch (RuntimeException | Error e) {
+                    synchronized (this) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                } finally {
+                    synchronized (this) {
+                        activeCount--;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits until all claimed tiles are computed. Must be called after work returned in the calling thread, so
+         * that no tile is left unclaimed.
+         */
+        private synchronized void await() {
+            boolean interrupted = false;
+
+            while (activeCount > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Rethrows the first failure of a tile.
+         */
+        private synchronized void rethrow() {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package lemming.context.inbound;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of matching the inbound contexts of a package against contexts.
+ */
+public class MatchResult implements Serializable {
+    /**
+     * Number of inbound contexts with a match.
+     */
+    private final Integer matched;
+
+    /**
+     * Number of inbound contexts with more than one possible match.
+     */
+    private final Integer ambiguous;
+
+    /**
+     * Number of inbound contexts without a possible match.
+     */
+    private final Integer unmatched;
+
+    /**
+     * Groups of inbound contexts with more than one possible match.
+     */
+    private final List<AmbiguousGroup> ambiguousGroups;
+
+    /**
+     * Creates a match result.
+     *
+     * @param matched   number of inbound contexts with a match
+     * @param ambiguous number of inbound contexts with more than one possible match
+     * @param unmatched number of inbound contexts without a possible match
+     */
+    public MatchResult(Integer matched, Integer ambiguous, Integer unmatched) {
+        this(matched, ambiguous, unmatched, new ArrayList<>());
+    }
+
+    /**
+     * Creates a match result.
+     *
+     * @param matched         number of inbound contexts with a match
+     * @param ambiguous       number of inbound contexts with more than one possible match
+     * @param unmatched       number of inbound contexts without a possible match
+     * @param ambiguousGroups groups of inbound contexts with more than one possible match
+     */
+    public MatchResult(Integer matched, Integer ambiguous, Integer unmatched, List<AmbiguousGroup> ambiguousGroups) {
+        this.matched = matched;
+        this.ambiguous = ambiguous;
+        this.unmatched = unmatched;
+        this.ambiguousGroups = ambiguousGroups;
+    }
+
+    /**
+     * Returns the number of inbound contexts with a match.
+     *
+     * @return A number of inbound contexts.
+     */
+    public Integer getMatched() {
+        return matched;
+    }
+
+    /**
+     * Returns the number of inbound contexts with more than one possible match.
+     *
+     * @return A number of inbound contexts.
+     */
+    public Integer getAmbiguous() {
+        return ambiguous;
+    }
+
+    /**
+     * Returns the number of inbound contexts without a possible match.
+     *
+     * @return A number of inbound contexts.
+     */
+    public Integer getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     * Returns the groups of inbound contexts with more than one possible match.
+     *
+     * @return A list of ambiguous groups.
+     */
+    public List<AmbiguousGroup> getAmbiguousGroups() {
+        return ambiguousGroups;
+    }
+
+    /**
+     * Returns a string representation of a match result.
+     *
+     * @return A string value.
+     */
+    @Override
+    public String toString() {
+        return String.format("matched: %d, ambiguous: %d, unmatched: %d", matched, ambiguous, unmatched);
+    }
+}
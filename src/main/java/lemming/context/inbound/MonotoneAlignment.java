@@ -0,0 +1,263 @@
+package lemming.context.inbound;
+
+import java.util.Arrays;
+
+/**
+ * Computes an optimal order-preserving matching between the rows and columns of a distance matrix.
+ * <p>
+ * A row and a column may be matched if their distance is not greater than a maximum distance. The weight of a match
+ * is the largest permitted distance in the matrix plus one minus the distance, so that every permitted match is worth
+ * taking and closer matches are worth more. The maximum distance only decides which matches are permitted; a greater
+ * weight constant would favour more but worse matches over fewer close ones. The matching with the greatest total
+ * weight is computed with Hirschberg’s divide and conquer scheme. Distances are never stored as a matrix. They are
+ * requested in blocks of rows, once to find the largest distance and then while the scores of a block of the matrix
+ * are computed, so that memory is linear in the number of columns. The forward and backward passes of Hirschberg’s
+ * scheme visit every distance about twice in total, so every distance is requested about three times. Ties are
+ * always broken in favour of the smaller column index, so the result is deterministic.
+ */
+final class MonotoneAlignment {
+    /**
+     * Source of the distances of a matrix.
+     */
+    @FunctionalInterface
+    interface DistanceSource {
+        /**
+         * Computes the distances of a block of rows and columns.
+         *
+         * @param rowFrom first row
+         * @param rowTo row after the last row
+         * @param columnFrom first column
+         * @param columnTo column after the last column
+         * @param distances matrix which receives the distances of the block, indexed relative to the block
+         */
+        void compute(int rowFrom, int rowTo, int columnFrom, int columnTo, int[][] distances);
+    }
+
+    /**
+     * Maximum number of distances requested at once.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Source of the distances.
+     */
+    private final DistanceSource distances;
+
+    /**
+     * Maximum distance of a permitted match.
+     */
+    private final int maxDistance;
+
+    /**
+     * Largest permitted distance in the matrix, from which the weights of matches are computed.
+     */
+    private final int largestDistance;
+
+    /**
+     * Matched column for each row, or -1 if a row is unmatched.
+     */
+    private final int[] matches;
+
+    /**
+     * Creates a monotone alignment.
+     *
+     * @param distances source of the distances
+     * @param rowCount number of rows
+     * @param columnCount number of columns
+     * @param maxDistance maximum distance of a permitted match
+     */
+    private MonotoneAlignment(DistanceSource distances, int rowCount, int columnCount, int maxDistance) {
+        this.distances = distances;
+        this.maxDistance = maxDistance;
+        this.largestDistance = getLargestDistance(rowCount, columnCount);
+        this.matches = new int[rowCount];
+
+        Arrays.fill(matches, -1);
+        solve(0, rowCount, 0, columnCount);
+    }
+
+    /**
+     * Aligns the rows and columns of a distance matrix.
+     *
+     * @param distances source of the distances
+     * @param rowCount number of rows
+     * @param columnCount number of columns
+     * @param maxDistance maximum distance of a permitted match
+     * @return An array with the matched column for each row, or -1 if a row is unmatched.
+     */
+    static int[] align(DistanceSource distances, int rowCount, int columnCount, int maxDistance) {
+        return new MonotoneAlignment(distances, rowCount, columnCount, maxDistance).matches;
+    }
+
+    /**
+     * Returns the largest permitted distance in the matrix.
+     *
+     * @param rowCount number of rows
+     * @param columnCount number of columns
+     * @return A distance, or 0 if no match is permitted.
+     */
+    private int getLargestDistance(int rowCount, int columnCount) {
+        if (rowCount == 0 || columnCount == 0) {
+            return 0;
+        }
+
+        int blockRows = Math.min(getBlockRows(columnCount), rowCount);
+        int[][] block = new int[blockRows][columnCount];
+        int largest = 0;
+
+        for (int blockFrom = 0; blockFrom < rowCount; blockFrom += blockRows) {
+            int blockTo = Math.min(blockFrom + blockRows, rowCount);
+            distances.compute(blockFrom, blockTo, 0, columnCount, block);
+
+            for (int row = 0; row < blockTo - blockFrom; row++) {
+                for (int distance : block[row]) {
+                    if (distance <= maxDistance) {
+                        largest = Math.max(largest, distance);
+                    }
+                }
+            }
+        }
+
+        return largest;
+    }
+
+    /**
+     * Returns the weight of a match with a distance.
+     *
+     * @param distance a distance
+     * @return A positive weight, or 0 if the match is not permitted.
+     */
+    private long weight(int distance) {
+        return distance <= maxDistance ? (long) largestDistance - distance + 1 : 0L;
+    }
+
+    /**
+     * Returns the number of rows requested at once for a block of columns.
+     *
+     * @param width number of columns
+     * @return A number of rows.
+     */
+    private static int getBlockRows(int width) {
+        return Math.max(1, BLOCK_SIZE / Math.max(1, width));
+    }
+
+    /**
+     * Aligns a block of rows and columns.
+     *
+     * @param rowFrom first row
+     * @param rowTo row after the last row
+     * @param columnFrom first column
+     * @param columnTo column after the last column
+     */
+    private void solve(int rowFrom, int rowTo, int columnFrom, int columnTo) {
+        if (rowFrom >= rowTo || columnFrom >= columnTo) {
+            return;
+        } else if (rowTo - rowFrom == 1) {
+            int[][] block = new int[1][columnTo - columnFrom];
+            long bestWeight = 0L;
+
+            distances.compute(rowFrom, rowTo, columnFrom, columnTo, block);
+
+            for (int column = columnFrom; column < columnTo; column++) {
+                long weight = weight(block[0][column - columnFrom]);
+
+                if (weight > bestWeight) {
+                    bestWeight = weight;
+                    matches[rowFrom] = column;
+                }
+            }
+
+            return;
+        }
+
+        int rowMiddle = (rowFrom + rowTo) >>> 1;
+        long[] forward = forwardScores(rowFrom, rowMiddle, columnFrom, columnTo);
+        long[] backward = backwardScores(rowMiddle, rowTo, columnFrom, columnTo);
+        int split = 0;
+
+        for (int k = 1; k < forward.length; k++) {
+            if (forward[k] + backward[k] > forward[split] + backward[split]) {
+                split = k;
+            }
+        }
+
+        solve(rowFrom, rowMiddle, columnFrom, columnFrom + split);
+        solve(rowMiddle, rowTo, columnFrom + split, columnTo);
+    }
+
+    /**
+     * Computes the best scores of aligning a block of rows with each prefix of a block of columns.
+     *
+     * @param rowFrom first row
+     * @param rowTo row after the last row
+     * @param columnFrom first column
+     * @param columnTo column after the last column
+     * @return An array whose element k is the best score using the first k columns.
+     */
+    private long[] forwardScores(int rowFrom, int rowTo, int columnFrom, int columnTo) {
+        int width = columnTo - columnFrom;
+        int blockRows = Math.min(getBlockRows(width), rowTo - rowFrom);
+        int[][] block = new int[blockRows][width];
+        long[] previous = new long[width + 1];
+        long[] current = new long[width + 1];
+
+        for (int blockFrom = rowFrom; blockFrom < rowTo; blockFrom += blockRows) {
+            int blockTo = Math.min(blockFrom + blockRows, rowTo);
+            distances.compute(blockFrom, blockTo, columnFrom, columnTo, block);
+
+            for (int row = blockFrom; row < blockTo; row++) {
+                int[] rowDistances = block[row - blockFrom];
+                current[0] = 0L;
+
+                for (int k = 1; k <= width; k++) {
+                    long value = Math.max(previous[k], current[k - 1]);
+                    current[k] = Math.max(value, previous[k - 1] + weight(rowDistances[k - 1]));
+                }
+
+                long[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        }
+
+        return previous;
+    }
+
+    /**
+     * Computes the best scores of aligning a block of rows with each suffix of a block of columns.
+     *
+     * @param rowFrom first row
+     * @param rowTo row after the last row
+     * @param columnFrom first column
+     * @param columnTo column after the last column
+     * @return An array whose element k is the best score using all columns but the first k.
+     */
+    private long[] backwardScores(int rowFrom, int rowTo, int columnFrom, int columnTo) {
+        int width = columnTo - columnFrom;
+        int blockRows = Math.min(getBlockRows(width), rowTo - rowFrom);
+        int[][] block = new int[blockRows][width];
+        long[] previous = new long[width + 1];
+        long[] current = new long[width + 1];
+
+        for (int blockTo = rowTo; blockTo > rowFrom; blockTo -= blockRows) {
+            int blockFrom = Math.max(blockTo - blockRows, rowFrom);
+            distances.compute(blockFrom, blockTo, columnFrom, columnTo, block);
+
+            for (int row = blockTo - 1; row >= blockFrom; row--) {
+                int[] rowDistances = block[row - blockFrom];
+                current[width] = 0L;
+
+                for (int k = width - 1; k >= 0; k--) {
+                    long value = Math.max(previous[k], current[k + 1]);
+                    current[k] = Math.max(value, previous[k + 1] + weight(rowDistances[k]));
+                }
+
+                long[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        }
+
+        return previous;
+    }
+}
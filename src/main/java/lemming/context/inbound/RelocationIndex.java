@@ -0,0 +1,345 @@
+package lemming.context.inbound;
+
+import lemming.context.BaseContext;
+import lemming.data.EntityManagerListener;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A locality-sensitive hashing index over all contexts, which finds likely counterparts of inbound contexts
+ * anywhere in the corpus.
+ * <p>
+ * Every context is represented by a MinHash signature over the character shingles of its comparison key. The
+ * signature is split into bands, and contexts sharing a band are candidates for each other. An index is built in the
+ * background and replaced as a whole when it is rebuilt, so lookups never block. Contexts created after a build are
+ * unknown to the index until the next build.
+ */
+public final class RelocationIndex {
+    /**
+     * Logger of the relocation index.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RelocationIndex.class);
+
+    /**
+     * Length of character shingles.
+     */
+    private static final int SHINGLE_LENGTH = 4;
+
+    /**
+     * Number of bands of a signature.
+     */
+    private static final int BAND_COUNT = 10;
+
+    /**
+     * Number of hash values per band.
+     */
+    private static final int BAND_SIZE = 3;
+
+    /**
+     * Maximum number of entries read from a single bucket.
+     */
+    private static final int MAX_BUCKET_SIZE = 1000;
+
+    /**
+     * Initial capacity of the entry arrays of a build.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * Multipliers of the hash functions.
+     */
+    private static final long[] MULTIPLIERS = new long[BAND_COUNT * BAND_SIZE];
+
+    /**
+     * Increments of the hash functions.
+     */
+    private static final long[] INCREMENTS = new long[BAND_COUNT * BAND_SIZE];
+
+    static {
+        Random random = new Random(0x5DEECE66DL);
+
+        for (int i = 0; i < MULTIPLIERS.length; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1L;
+            INCREMENTS[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Current index, or null if no index was built yet.
+     */
+    private static volatile RelocationIndex current;
+
+    /**
+     * Executor building indexes.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Sorted entries per band. An entry holds the band key in its upper and the context id in its lower 32 bits.
+     */
+    private final long[][] entries;
+
+    /**
+     * Creates a relocation index.
+     *
+     * @param entries sorted entries per band
+     */
+    private RelocationIndex(long[][] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the current index.
+     *
+     * @return A relocation index, or null if no index was built yet.
+     */
+    public static RelocationIndex get() {
+        return current;
+    }
+
+    /**
+     * Builds a new index in the background. The current index stays in use until the build is finished.
+     */
+    public static synchronized void rebuild() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "relocation-index");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        executor.execute(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                current = build();
+                logger.info("Relocation index built in " + (System.currentTimeMillis() - start) + " ms.");
+            } catch (RuntimeException e) {
+                logger.error("Building the relocation index failed.", e);
+            }
+        });
+    }
+
+    /**
+     * Stops building indexes and drops the current index.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        current = null;
+    }
+
+    /**
+     * Builds an index from all contexts.
+     *
+     * @return A relocation index.
+     */
+    private static RelocationIndex build() {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        StatelessSession session = null;
+        Transaction transaction = null;
+        long[][] entries = new long[BAND_COUNT][INITIAL_CAPACITY];
+        int size = 0;
+
+        try {
+            session = entityManager.unwrap(Session.class).getSessionFactory().openStatelessSession();
+            transaction = session.beginTransaction();
+            org.hibernate.Query query = session.createQuery("SELECT c.id, c.preceding, c.initPunctuation, " +
+                    "c.keyword, c.endPunctuation, c.following FROM Context c");
+            query.setReadOnly(true).setCacheable(false).setFetchSize(Integer.MIN_VALUE);
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            int[] bandKeys = new int[BAND_COUNT];
+
+            while (results.next()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Building the relocation index was interrupted.");
+                }
+
+                Integer id = (Integer) results.get(0);
+                String key = String.join("#", (String) results.get(1),
+                        Optional.ofNullable((String) results.get(2)).orElse(""), (String) results.get(3),
+                        Optional.ofNullable((String) results.get(4)).orElse(""), (String) results.get(5));
+
+                if (size == entries[0].length) {
+                    for (int band = 0; band < BAND_COUNT; band++) {
+                        entries[band] = Arrays.copyOf(entries[band], size * 2);
+                    }
+                }
+
+                computeBandKeys(key.toCharArray(), bandKeys);
+
+                for (int band = 0; band < BAND_COUNT; band++) {
+                    entries[band][size] = toEntry(bandKeys[band], id);
+                }
+
+                size++;
+            }
+
+            results.close();
+            transaction.commit();
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw e;
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+
+            entityManager.close();
+        }
+
+        for (int band = 0; band < BAND_COUNT; band++) {
+            entries[band] = Arrays.copyOf(entries[band], size);
+            Arrays.sort(entries[band]);
+        }
+
+        return new RelocationIndex(entries);
+    }
+
+    /**
+     * Finds ids of contexts which are likely counterparts of a context.
+     *
+     * @param context a context
+     * @param keyCache cache of comparison keys
+     * @param limit maximum number of ids
+     * @return A list of context ids in order of decreasing similarity.
+     */
+    public List<Integer> findCandidates(BaseContext context, ContextKeyCache keyCache, int limit) {
+        int[] bandKeys = new int[BAND_COUNT];
+        Map<Integer, Integer> hits = new HashMap<>();
+
+        computeBandKeys(keyCache.get(context), bandKeys);
+
+        for (int band = 0; band < BAND_COUNT; band++) {
+            long[] bandEntries = entries[band];
+            int index = lowerBound(bandEntries, toEntry(bandKeys[band], 0));
+
+            for (int i = index; i < bandEntries.length && i < index + MAX_BUCKET_SIZE; i++) {
+                if ((int) (bandEntries[i] >> 32) != bandKeys[band]) {
+                    break;
+                }
+
+                hits.merge((int) bandEntries[i], 1, Integer::sum);
+            }
+        }
+
+        List<Map.Entry<Integer, Integer>> sortedHits = new ArrayList<>(hits.entrySet());
+        List<Integer> candidates = new ArrayList<>(Math.min(limit, sortedHits.size()));
+
+        sortedHits.sort((entry1, entry2) -> {
+            int result = entry2.getValue().compareTo(entry1.getValue());
+            return result != 0 ? result : entry1.getKey().compareTo(entry2.getKey());
+        });
+
+        for (int i = 0; i < sortedHits.size() && i < limit; i++) {
+            candidates.add(sortedHits.get(i).getKey());
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Computes the band keys of the MinHash signature of a comparison key.
+     *
+     * @param key a comparison key
+     * @param bandKeys array which receives a key for each band
+     */
+    private static void computeBandKeys(char[] key, int[] bandKeys) {
+        long[] signature = new long[BAND_COUNT * BAND_SIZE];
+        int shingleCount = Math.max(1, key.length - SHINGLE_LENGTH + 1);
+
+        Arrays.fill(signature, Long.MAX_VALUE);
+
+        for (int start = 0; start < shingleCount; start++) {
+            long shingleHash = 0L;
+
+            for (int i = start; i < start + SHINGLE_LENGTH && i < key.length; i++) {
+                shingleHash = shingleHash * 31L + key[i];
+            }
+
+            shingleHash = mix(shingleHash);
+
+            for (int i = 0; i < signature.length; i++) {
+                // drop the sign bit, so that values compare as unsigned 63 bit numbers
+                long value = (MULTIPLIERS[i] * shingleHash + INCREMENTS[i]) >>> 1;
+
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+
+        for (int band = 0; band < BAND_COUNT; band++) {
+            long bandHash = band;
+
+            for (int i = band * BAND_SIZE; i < (band + 1) * BAND_SIZE; i++) {
+                bandHash = mix(bandHash * 31L + signature[i]);
+            }
+
+            bandKeys[band] = (int) (bandHash >>> 32);
+        }
+    }
+
+    /**
+     * Mixes the bits of a hash value.
+     *
+     * @param value a hash value
+     * @return A mixed hash value.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Combines a band key and a context id into an entry.
+     *
+     * @param bandKey a band key
+     * @param id a context id
+     * @return An entry.
+     */
+    private static long toEntry(int bandKey, int id) {
+        return ((long) bandKey << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the index of the first entry which is not less than a value.
+     *
+     * @param entries sorted entries
+     * @param value a value
+     * @return An index.
+     */
+    private static int lowerBound(long[] entries, long value) {
+        int low = 0;
+        int high = entries.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (entries[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+}
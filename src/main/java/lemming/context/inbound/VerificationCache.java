@@ -0,0 +1,414 @@
+package lemming.context.inbound;
+
+import lemming.context.Context;
+import lemming.context.ContextDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of background verification results keyed by package id and package version.
+ * <p>
+ * Candidate alignments of all unmatched locations of a package are computed by a bounded pool of background
+ * threads. Results are evicted in least recently used order and must be invalidated when inbound contexts of a
+ * package are matched, imported or discarded.
+ */
+public abstract class VerificationCache {
+    /**
+     * Logger of the verification cache.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(VerificationCache.class);
+
+    /**
+     * Maximum number of cached results.
+     */
+    private static final int CAPACITY = 16;
+
+    /**
+     * Number of threads computing results.
+     */
+    private static final int THREAD_COUNT = 2;
+
+    /**
+     * Maximum number of waiting verification jobs.
+     */
+    private static final int QUEUE_CAPACITY = 32;
+
+    /**
+     * Maximum number of relocation candidates per inbound context.
+     */
+    private static final int CANDIDATE_LIMIT = 5;
+
+    /**
+     * Cached results in access order.
+     */
+    private static final Map<String, VerificationResult> results =
+            new LinkedHashMap<String, VerificationResult>(CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, VerificationResult> eldest) {
+                    if (size() > CAPACITY) {
+                        eldest.getValue().cancel();
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+
+    /**
+     * Executor running verification jobs.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Locks which keep verification jobs of the same package from running at the same time. Jobs of packages which
+     * share a lock run one after another as well.
+     */
+    private static final Object[] locks = new Object[64];
+
+    static {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the cached result for a package, and starts a verification job if there is none. A failed result is
+     * returned until it is invalidated.
+     *
+     * @param contextPackage a package of inbound contexts
+     * @return A verification result which may still be running.
+     */
+    public static synchronized VerificationResult get(InboundContextPackage contextPackage) {
+        String key = getKey(contextPackage);
+        VerificationResult result = results.get(key);
+
+        if (result == null) {
+            result = new VerificationResult();
+            results.put(key, result);
+
+            try {
+                result.setFuture(getExecutor().submit(new VerificationJob(contextPackage, result)));
+            } catch (RejectedExecutionException e) {
+                logger.error("Verification job for package " + contextPackage.getId() + " was rejected.", e);
+                result.setState(VerificationResult.State.FAILED);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts a verification job for a package if there is no cached result.
+     *
+     * @param contextPackage a package of inbound contexts
+     */
+    public static void precompute(InboundContextPackage contextPackage) {
+        get(contextPackage);
+    }
+
+    /**
+     * Removes all cached results of a package and cancels their verification jobs.
+     *
+     * @param contextPackage a package of inbound contexts
+     */
+    public static synchronized void invalidate(InboundContextPackage contextPackage) {
+        String prefix = contextPackage.getId() + ":";
+        Iterator<Map.Entry<String, VerificationResult>> iterator = results.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, VerificationResult> entry = iterator.next();
+
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops all verification jobs and clears the cache.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        results.clear();
+    }
+
+    /**
+     * Returns the cache key of a package.
+     *
+     * @param contextPackage a package of inbound contexts
+     * @return A cache key.
+     */
+    private static String getKey(InboundContextPackage contextPackage) {
+        return contextPackage.getId() + ":" + contextPackage.getVersion();
+    }
+
+    /**
+     * Returns the lock of a package.
+     *
+     * @param contextPackage a package of inbound contexts
+     * @return A lock object.
+     */
+    private static Object getLock(InboundContextPackage contextPackage) {
+        return locks[Math.floorMod(contextPackage.getId(), locks.length)];
+    }
+
+    /**
+     * Returns the executor running verification jobs.
+     *
+     * @return An executor service.
+     */
+    private static ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "verification");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * A job computing candidate alignments for all unmatched locations of a package.
+     */
+    private static class VerificationJob implements Runnable {
+        /**
+         * A package of inbound contexts.
+         */
+        private final InboundContextPackage contextPackage;
+
+        /**
+         * Result which is filled by the job.
+         */
+        private final VerificationResult result;
+
+        /**
+         * Creates a verification job.
+         *
+         * @param contextPackage a package of inbound contexts
+         * @param result result which is filled by the job
+         */
+        private VerificationJob(InboundContextPackage contextPackage, VerificationResult result) {
+            this.contextPackage = contextPackage;
+            this.result = result;
+        }
+
+        /**
+         * Runs the job once no cancelled job of the same package is running anymore, so that two jobs never match
+         * the same package by hash.
+         */
+        @Override
+        public void run() {
+            synchronized (getLock(contextPackage)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    result.setState(VerificationResult.State.FAILED);
+                    return;
+                }
+
+                verify();
+            }
+        }
+
+        /**
+         * Matches inbound contexts by hash if necessary and aligns all unmatched locations. Relocations are searched
+         * once all locations are aligned, so that they only take contexts which are matched neither by hash, nor by
+         * the alignment of their own location, nor by an earlier relocation.
+         */
+        private void verify() {
+            try {
+                InboundContextPackageDao contextPackageDao = new InboundContextPackageDao();
+                ContextKeyCache keyCache = new ContextKeyCache();
+
+                if (!contextPackageDao.hasMatchedContexts(contextPackage)) {
+                    contextPackageDao.matchContextsByHash(contextPackage);
+                }
+
+                List<String> unmatchedLocations = contextPackageDao.findUnmatchedContextLocations(contextPackage);
+                Set<Integer> claimedContextIds = new HashSet<>(contextPackageDao
+                        .findMatchedContextIds(contextPackage));
+                result.setLocationCount(unmatchedLocations.size());
+
+                for (String location : unmatchedLocations) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        result.setState(VerificationResult.State.FAILED);
+                        return;
+                    }
+
+                    LocationAlignment alignment = align(contextPackageDao, location, keyCache);
+
+                    for (Triple triple : alignment.getMatchingTriples()) {
+                        claimedContextIds.add(triple.getContext().getId());
+                    }
+
+                    result.addAlignment(alignment);
+                }
+
+                List<LocationAlignment> alignments = result.getAlignments();
+
+                for (int i = 0; i < alignments.size(); i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        result.setState(VerificationResult.State.FAILED);
+                        return;
+                    }
+
+                    result.setAlignment(i, relocate(alignments.get(i), claimedContextIds, keyCache));
+                }
+
+                result.setState(VerificationResult.State.DONE);
+            } catch (RuntimeException e) {
+                logger.error("Verification of package " + contextPackage.getId() + " failed.", e);
+                result.setState(VerificationResult.State.FAILED);
+            }
+        }
+
+        /**
+         * Computes the candidate alignment of a location with contexts of the same location.
+         *
+         * @param contextPackageDao data access object for packages
+         * @param location location of contexts
+         * @param keyCache cache of comparison keys of the current run
+         * @return A location alignment.
+         */
+        private LocationAlignment align(InboundContextPackageDao contextPackageDao, String location,
+                                        ContextKeyCache keyCache) {
+            List<InboundContext> unmatchedContexts = contextPackageDao
+                    .findUnmatchedContextsByLocation(contextPackage, location);
+            List<Context> possibleComplements = new InboundContextDao().findPossibleComplements(unmatchedContexts);
+
+            if (possibleComplements.size() == 0) {
+                List<InboundContext> allContexts = contextPackageDao.findByLocation(contextPackage, location);
+
+                // if all contexts are unmatched, add all possible complements from location
+                if (unmatchedContexts.size() == allContexts.size()) {
+                    possibleComplements = new ContextDao().findByLocation(location);
+                }
+            }
+
+            List<Triple> matchingTriples = new ArrayList<>();
+
+            if (possibleComplements != null) {
+                matchingTriples = MatchHelper.computeMatchingTriples(possibleComplements, unmatchedContexts,
+                        MatchHelper.getDefaultStrategy(), keyCache);
+            } else {
+                possibleComplements = new ArrayList<>();
+            }
+
+            List<InboundContext> contextsWithoutComplement = new ArrayList<>(unmatchedContexts);
+            List<Context> unmatchedComplements = new ArrayList<>(possibleComplements);
+
+            for (Triple triple : matchingTriples) {
+                contextsWithoutComplement.remove(triple.getInboundContext());
+                unmatchedComplements.remove(triple.getContext());
+            }
+
+            return new LocationAlignment(location, matchingTriples, unmatchedComplements,
+                    contextsWithoutComplement);
+        }
+
+        /**
+         * Adds relocations to the alignment of a location. Relocated contexts are claimed, so that no other location
+         * takes them.
+         *
+         * @param alignment alignment of a location
+         * @param claimedContextIds IDs of contexts which are already matched
+         * @param keyCache cache of comparison keys of the current run
+         * @return A location alignment.
+         */
+        private LocationAlignment relocate(LocationAlignment alignment, Set<Integer> claimedContextIds,
+                                           ContextKeyCache keyCache) {
+            List<Triple> relocations = findRelocations(alignment.getLocation(),
+                    alignment.getContextsWithoutComplement(), claimedContextIds, keyCache);
+
+            if (relocations.isEmpty()) {
+                return alignment;
+            }
+
+            List<Triple> matchingTriples = new ArrayList<>(alignment.getMatchingTriples());
+            List<InboundContext> contextsWithoutComplement = new ArrayList<>(alignment.getContextsWithoutComplement());
+
+            for (Triple triple : relocations) {
+                matchingTriples.add(triple);
+                contextsWithoutComplement.remove(triple.getInboundContext());
+                claimedContextIds.add(triple.getContext().getId());
+            }
+
+            return new LocationAlignment(alignment.getLocation(), matchingTriples,
+                    alignment.getUnmatchedComplements(), contextsWithoutComplement);
+        }
+
+        /**
+         * Finds counterparts from other locations for inbound contexts without a complement. Contexts which are
+         * already matched are left out.
+         *
+         * @param location location of inbound contexts
+         * @param inboundContexts inbound contexts without a complement
+         * @param claimedContextIds IDs of contexts which are already matched
+         * @param keyCache cache of comparison keys of the current run
+         * @return A list of triples, which is empty while no relocation index is available.
+         */
+        private List<Triple> findRelocations(String location, List<InboundContext> inboundContexts,
+                                             Set<Integer> claimedContextIds, ContextKeyCache keyCache) {
+            RelocationIndex index = RelocationIndex.get();
+
+            if (index == null || inboundContexts.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            List<List<Integer>> candidateIds = new ArrayList<>(inboundContexts.size());
+            Set<Integer> allCandidateIds = new LinkedHashSet<>();
+
+            for (InboundContext inboundContext : inboundContexts) {
+                List<Integer> ids = index.findCandidates(inboundContext, keyCache, CANDIDATE_LIMIT);
+                candidateIds.add(ids);
+                allCandidateIds.addAll(ids);
+            }
+
+            Map<Integer, Context> contextsById = new HashMap<>();
+
+            for (Context context : new ContextDao().findByIds(new ArrayList<>(allCandidateIds))) {
+                // contexts of the same location have already been aligned
+                if (!context.getLocation().equals(location) && !claimedContextIds.contains(context.getId())) {
+                    contextsById.put(context.getId(), context);
+                }
+            }
+
+            List<List<Context>> candidates = new ArrayList<>(inboundContexts.size());
+
+            for (List<Integer> ids : candidateIds) {
+                List<Context> contexts = new ArrayList<>(ids.size());
+
+                for (Integer id : ids) {
+                    if (contextsById.containsKey(id)) {
+                        contexts.add(contextsById.get(id));
+                    }
+                }
+
+                candidates.add(contexts);
+            }
+
+            return MatchHelper.computeRelocationTriples(inboundContexts, candidates, keyCache);
+        }
+    }
+}
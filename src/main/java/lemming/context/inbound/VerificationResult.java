@@ -0,0 +1,158 @@
+package lemming.context.inbound;
+
+import org.apache.wicket.core.util.lang.WicketObjects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Result of a background verification of a package of inbound contexts.
+ */
+public class VerificationResult {
+    /**
+     * States of a verification.
+     */
+    public enum State {
+        RUNNING, DONE, FAILED
+    }
+
+    /**
+     * State of the verification.
+     */
+    private volatile State state = State.RUNNING;
+
+    /**
+     * Number of locations to verify, or -1 if unknown yet.
+     */
+    private volatile int locationCount = -1;
+
+    /**
+     * Alignments of verified locations.
+     */
+    private final List<LocationAlignment> alignments = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Future of the job filling the result.
+     */
+    private volatile Future<?> future;
+
+    /**
+     * Returns the state of the verification.
+     *
+     * @return A state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Checks if the verification is done.
+     *
+     * @return True if the verification is done; false otherwise.
+     */
+    public boolean isDone() {
+        return state.equals(State.DONE);
+    }
+
+    /**
+     * Returns the number of locations to verify.
+     *
+     * @return A number of locations, or -1 if unknown yet.
+     */
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    /**
+     * Returns the number of verified locations.
+     *
+     * @return A number of locations.
+     */
+    public int getVerifiedLocationCount() {
+        return alignments.size();
+    }
+
+    /**
+     * Returns the alignments of verified locations in order of location.
+     *
+     * @return A list of location alignments.
+     */
+    public List<LocationAlignment> getAlignments() {
+        synchronized (alignments) {
+            return new ArrayList<>(alignments);
+        }
+    }
+
+    /**
+     * Returns copies of the alignments of verified locations in order of location. Results are shared by all
+     * sessions, so that every page works on its own copies of contexts and inbound contexts.
+     *
+     * @return A list of location alignments.
+     */
+    public List<LocationAlignment> copyAlignments() {
+        List<LocationAlignment> copies = new ArrayList<>();
+
+        for (LocationAlignment alignment : getAlignments()) {
+            copies.add(WicketObjects.cloneObject(alignment));
+        }
+
+        return copies;
+    }
+
+    /**
+     * Sets the future of the job filling the result.
+     *
+     * @param future a future
+     */
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Cancels the job filling the result, interrupting it if it is running.
+     */
+    void cancel() {
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Sets the number of locations to verify.
+     *
+     * @param locationCount number of locations
+     */
+    void setLocationCount(int locationCount) {
+        this.locationCount = locationCount;
+    }
+
+    /**
+     * Adds the alignment of a verified location.
+     *
+     * @param alignment a location alignment
+     */
+    void addAlignment(LocationAlignment alignment) {
+        alignments.add(alignment);
+    }
+
+    /**
+     * Replaces the alignment of a verified location.
+     *
+     * @param index index of the alignment
+     * @param alignment a location alignment
+     */
+    void setAlignment(int index, LocationAlignment alignment) {
+        alignments.set(index, alignment);
+    }
+
+    /**
+     * Sets the state of the verification.
+     *
+     * @param state a state
+     */
+    void setState(State state) {
+        this.state = state;
+    }
+}
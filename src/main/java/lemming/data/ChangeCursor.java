@@ -0,0 +1,53 @@
+package lemming.data;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Cursors of incremental exports, which are passed as instant to the next incremental export.
+ * <p>
+ * Rows are exported by their modification timestamp, which is set while a write transaction runs, not when it
+ * commits. A row of a transaction which commits after an export may thus carry a timestamp before the export, and
+ * would be missed if the time of the export was the cursor. The cursor lies an overlap before the time of the export
+ * instead. As long as no write transaction takes longer than the overlap, every change committed after an export is
+ * exported again by an incremental export from its cursor. Timestamps have a precision of seconds, which the overlap
+ * covers as well. Changes within the overlap are exported more than once, so clients apply them by ID.
+ */
+public abstract class ChangeCursor {
+    /**
+     * Overlap of a cursor, which must not be shorter than the longest write transaction.
+     */
+    private static Duration overlap = Duration.ofMinutes(10);
+
+    /**
+     * Returns the overlap of a cursor.
+     *
+     * @return A duration.
+     */
+    public static synchronized Duration getOverlap() {
+        return overlap;
+    }
+
+    /**
+     * Sets the overlap of a cursor.
+     *
+     * @param overlap a duration which is not shorter than the longest write transaction
+     */
+    public static synchronized void setOverlap(Duration overlap) {
+        if (overlap.isNegative()) {
+            throw new IllegalArgumentException("Cursor overlap must not be negative.");
+        }
+
+        ChangeCursor.overlap = overlap;
+    }
+
+    /**
+     * Returns the cursor of an export.
+     *
+     * @param timestamp time of the export
+     * @return An instant.
+     */
+    public static Instant getCursor(Instant timestamp) {
+        return timestamp.minus(getOverlap());
+    }
+}
@@ -14,6 +14,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.persistence.TypedQuery;
 import java.lang.reflect.ParameterizedType;
+import java.sql.Timestamp;
 import java.util.List;
 
 /**
@@ -91,7 +92,9 @@ public abstract class GenericDao<E> implements IDao<E> {
         try {
             transaction = entityManager.getTransaction();
             transaction.begin();
-            entityManager.remove(entityManager.merge(entity));
+            E mergedEntity = entityManager.merge(entity);
+            entityManager.remove(mergedEntity);
+            persistTombstone(entityManager, mergedEntity);
             transaction.commit();
         } catch (RuntimeException e) {
             e.printStackTrace();
@@ -120,6 +123,7 @@ public abstract class GenericDao<E> implements IDao<E> {
             transaction.begin();
             E entity = entityManager.find(entityClass, primaryKey);
             entityManager.remove(entity);
+            persistTombstone(entityManager, entity);
             transaction.commit();
         } catch (RuntimeException e) {
             e.printStackTrace();
@@ -220,6 +224,30 @@ public abstract class GenericDao<E> implements IDao<E> {
         }
     }
 
+    /**
+     * Returns the tombstone type of removed entities.
+     *
+     * @return A tombstone type, or null if no tombstones are kept for removed entities.
+     */
+    protected Tombstone.Type getTombstoneType() {
+        return null;
+    }
+
+    /**
+     * Persists a tombstone for a removed entity if tombstones are kept for its class.
+     *
+     * @param entityManager entity manager which removes the entity
+     * @param entity a removed entity
+     */
+    private void persistTombstone(EntityManager entityManager, E entity) {
+        Tombstone.Type type = getTombstoneType();
+
+        if (type != null) {
+            Object id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+            entityManager.persist(new Tombstone(type, (Integer) id, new Timestamp(System.currentTimeMillis())));
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -1,17 +1,38 @@
 package lemming.data;
 
-import com.google.common.hash.Hashing;
 import lemming.context.BaseContext;
 
+import javax.persistence.PostLoad;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
-import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
 
 /**
  * Sets a hash for an entity if its class is recognized.
+ * <p>
+ * The hash of a context is a SHA512 hash of its text elements joined by two unit separators and encoded as UTF-8.
+ * Text elements are fed into a digest which is reused per thread, so that no joined string is built. A hash is only
+ * computed if a text element changed since the hash was last computed or loaded.
  */
 @SuppressWarnings("unused")
 public class HashEntityListener {
+    /**
+     * Delimiter between text elements of a context.
+     */
+    private static final String DELIMITER = "\u001F\u001F";
+
+    /**
+     * Hexadecimal digits of a hash string.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Hashers which are reused by each thread.
+     */
+    private static final ThreadLocal<Sha512Hasher> hashers = ThreadLocal.withInitial(Sha512Hasher::new);
+
     /**
      * Called on pre-persist.
      *
@@ -33,13 +54,77 @@ public class HashEntityListener {
     }
 
     /**
-     * Returns a SHA512 hash of an input string.
+     * Called on post-load. The loaded hash belongs to the loaded text elements.
      *
-     * @param input input string
+     * @param object an object
+     */
+    @PostLoad
+    public void onPostLoad(Object object) {
+        if (object instanceof BaseContext) {
+            ((BaseContext) object).markHashClean();
+        }
+    }
+
+    /**
+     * Sets hashes for a collection of contexts in parallel. Contexts whose hash is up to date are skipped, so that
+     * persisting them afterwards doesn’t compute their hashes again.
+     *
+     * @param contexts a collection of contexts
+     */
+    public static void setHashes(Collection<? extends BaseContext> contexts) {
+        contexts.parallelStream().forEach(HashEntityListener::setContextHash);
+    }
+
+    /**
+     * Returns the SHA512 hash of a context.
+     *
+     * @param context a context
      * @return A string representation of a SHA512 hash.
      */
-    private String getSha512(String input) {
-        return Hashing.sha512().hashString(input, StandardCharsets.UTF_8).toString();
+    public static String getHash(BaseContext context) {
+        return getHash(context.getPreceding(), context.getInitPunctuation(), context.getKeyword(),
+                context.getEndPunctuation(), context.getFollowing());
+    }
+
+    /**
+     * Returns the SHA512 hash of the text elements of a context.
+     *
+     * @param preceding preceding text
+     * @param initPunctuation punctuation preceding the keyword, or null
+     * @param keyword keyword
+     * @param endPunctuation punctuation following the keyword, or null
+     * @param following following text
+     * @return A string representation of a SHA512 hash.
+     */
+    public static String getHash(String preceding, String initPunctuation, String keyword, String endPunctuation,
+                                 String following) {
+        Sha512Hasher hasher = hashers.get();
+
+        hasher.update(preceding);
+        hasher.update(DELIMITER);
+        hasher.update(initPunctuation != null ? initPunctuation : "");
+        hasher.update(DELIMITER);
+        hasher.update(keyword);
+        hasher.update(DELIMITER);
+        hasher.update(endPunctuation != null ? endPunctuation : "");
+        hasher.update(DELIMITER);
+        hasher.update(following);
+        return hasher.digest();
+    }
+
+    /**
+     * Returns the fingerprint of a hash. The fingerprint is the first 64 bits of the hash as a signed long, like
+     * CAST(CONV(LEFT(hash, 16), 16, -10) AS SIGNED) in MySQL.
+     *
+     * @param hash a hash string
+     * @return A fingerprint, or null if the hash is too short.
+     */
+    public static Long getFingerprint(String hash) {
+        if (hash == null || hash.length() < 16) {
+            return null;
+        }
+
+        return Long.parseUnsignedLong(hash.substring(0, 16), 16);
     }
 
     /**
@@ -49,11 +134,118 @@ public class HashEntityListener {
      */
     private void setHash(Object object) {
         if (object instanceof BaseContext) {
-            BaseContext context = (BaseContext) object;
-            String hash = getSha512(context.toString("\u001F\u001F"));
-            context.setHash(hash);
+            setContextHash((BaseContext) object);
         } else {
             throw new IllegalStateException("Unknown entity: " + object.getClass().getCanonicalName());
         }
     }
+
+    /**
+     * Sets the hash of a context if one of its text elements changed.
+     *
+     * @param context a context
+     */
+    private static void setContextHash(BaseContext context) {
+        if (context.isHashDirty()) {
+            context.setHash(getHash(context));
+            context.markHashClean();
+        }
+    }
+
+    /**
+     * A SHA512 hasher which encodes strings as UTF-8 into a reusable buffer.
+     */
+    private static class Sha512Hasher {
+        /**
+         * Reused message digest.
+         */
+        private final MessageDigest digest;
+
+        /**
+         * Buffer of encoded bytes.
+         */
+        private final byte[] buffer = new byte[4096];
+
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int position = 0;
+
+        /**
+         * Creates a SHA512 hasher.
+         */
+        private Sha512Hasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-512");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Adds a string encoded as UTF-8. A null string is added as “null”, like String.join does. Unpaired
+         * surrogates are encoded as question marks, like String.getBytes does.
+         *
+         * @param string a string or null
+         */
+        private void update(String string) {
+            if (string == null) {
+                string = "null";
+            }
+
+            for (int i = 0; i < string.length(); i++) {
+                char character = string.charAt(i);
+
+                if (position > buffer.length - 4) {
+                    flush();
+                }
+
+                if (character < 0x80) {
+                    buffer[position++] = (byte) character;
+                } else if (character < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (character >> 6));
+                    buffer[position++] = (byte) (0x80 | (character & 0x3F));
+                } else if (Character.isHighSurrogate(character) && i + 1 < string.length() &&
+                        Character.isLowSurrogate(string.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(character, string.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(character)) {
+                    buffer[position++] = (byte) '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (character >> 12));
+                    buffer[position++] = (byte) (0x80 | ((character >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (character & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Feeds the buffer into the digest.
+         */
+        private void flush() {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+
+        /**
+         * Completes the hash and resets the hasher.
+         *
+         * @return A string representation of the hash.
+         */
+        private String digest() {
+            flush();
+            byte[] bytes = digest.digest();
+            char[] characters = new char[bytes.length * 2];
+
+            for (int i = 0; i < bytes.length; i++) {
+                characters[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+                characters[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+            }
+
+            return new String(characters);
+        }
+    }
 }
@@ -0,0 +1,110 @@
+package lemming.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+/**
+ * Class representing the deletion of an entity, so that incremental exports can report deleted entities.
+ */
+@Entity
+@Table(name = "tombstone", indexes = {
+        @Index(columnList = "type, deleted")})
+public class Tombstone implements Serializable {
+    /**
+     * Determines if a deserialized file is compatible with this class.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Types of deleted entities.
+     */
+    public enum Type {
+        CONTEXT, LEMMA
+    }
+
+    /**
+     * ID associated with a tombstone.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    /**
+     * Type of the deleted entity.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", length = 30, nullable = false)
+    private Type type;
+
+    /**
+     * ID of the deleted entity.
+     */
+    @Column(name = "entity_id", nullable = false)
+    private Integer entityId;
+
+    /**
+     * Deletion timestamp of the entity.
+     */
+    @Column(name = "deleted", nullable = false)
+    private Timestamp deleted;
+
+    /**
+     * Creates an instance of a tombstone.
+     */
+    public Tombstone() {
+    }
+
+    /**
+     * Creates an instance of a tombstone.
+     *
+     * @param type type of the deleted entity
+     * @param entityId ID of the deleted entity
+     * @param deleted deletion timestamp of the entity
+     */
+    public Tombstone(Type type, Integer entityId, Timestamp deleted) {
+        this.type = type;
+        this.entityId = entityId;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Returns the type of the deleted entity.
+     *
+     * @return Type of the deleted entity.
+     */
+    @JsonIgnore
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the ID of the deleted entity.
+     *
+     * @return ID of the deleted entity.
+     */
+    @JsonProperty("id")
+    public Integer getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Returns the deletion timestamp of the entity.
+     *
+     * @return A timestamp.
+     */
+    public Timestamp getDeleted() {
+        return deleted;
+    }
+}
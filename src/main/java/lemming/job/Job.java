@@ -0,0 +1,312 @@
+package lemming.job;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lemming.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long running background job of a user with progress counters.
+ * <p>
+ * Jobs are run by the job registry. Their state and counters may be read by any thread while a job is running.
+ */
+public abstract class Job implements Runnable {
+    /**
+     * Logger of jobs.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(Job.class);
+
+    /**
+     * States of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * ID of the job.
+     */
+    private final String id;
+
+    /**
+     * ID of the user who started the job, or null for a job of the application.
+     */
+    private final Integer userId;
+
+    /**
+     * Name of the job.
+     */
+    private final String name;
+
+    /**
+     * Creation time of the job in milliseconds.
+     */
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * End time of the job in milliseconds, or null if the job has not ended yet.
+     */
+    private volatile Long finished;
+
+    /**
+     * State of the job.
+     */
+    private volatile State state = State.QUEUED;
+
+    /**
+     * Message of the job, or null.
+     */
+    private volatile String message;
+
+    /**
+     * Number of parsed items.
+     */
+    private final AtomicLong parsed = new AtomicLong();
+
+    /**
+     * Number of hashed items.
+     */
+    private final AtomicLong hashed = new AtomicLong();
+
+    /**
+     * Number of persisted items.
+     */
+    private final AtomicLong persisted = new AtomicLong();
+
+    /**
+     * Number of matched items.
+     */
+    private final AtomicLong matched = new AtomicLong();
+
+    /**
+     * Creates a job.
+     *
+     * @param user user who starts the job
+     * @param name name of the job
+     */
+    public Job(User user, String name) {
+        this.id = UUID.randomUUID().toString();
+        this.userId = user.getId();
+        this.name = name;
+    }
+
+    /**
+     * Creates a job of the application, which is only visible to administrators.
+     *
+     * @param name name of the job
+     */
+    protected Job(String name) {
+        this(UUID.randomUUID().toString(), name);
+    }
+
+    /**
+     * Creates a job of the application with a well-known ID, which is only visible to administrators.
+     *
+     * @param id ID of the job
+     * @param name name of the job
+     */
+    protected Job(String id, String name) {
+        this.id = id;
+        this.userId = null;
+        this.name = name;
+    }
+
+    /**
+     * Does the work of the job.
+     *
+     * @throws Exception if the job fails
+     */
+    protected abstract void execute() throws Exception;
+
+    /**
+     * Runs the job and records its state.
+     */
+    @Override
+    public final void run() {
+        state = State.RUNNING;
+
+        try {
+            execute();
+            state = State.DONE;
+        } catch (Exception e) {
+            logger.error("Job " + id + " failed.", e);
+
+            if (message == null) {
+                message = e.getLocalizedMessage();
+            }
+
+            state = State.FAILED;
+        } finally {
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Marks the job as failed without running it.
+     *
+     * @param message message of the failure
+     */
+    void reject(String message) {
+        this.message = message;
+        state = State.FAILED;
+        finished = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the ID of the job.
+     *
+     * @return A job ID.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the ID of the user who started the job.
+     *
+     * @return A user ID, or null for a job of the application.
+     */
+    @JsonIgnore
+    public Integer getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the name of the job.
+     *
+     * @return A name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the creation time of the job.
+     *
+     * @return A time in milliseconds.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Returns the end time of the job.
+     *
+     * @return A time in milliseconds, or null if the job has not ended yet.
+     */
+    public Long getFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the state of the job.
+     *
+     * @return A state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Checks if the job has ended.
+     *
+     * @return True if the job is done or failed; false otherwise.
+     */
+    @JsonIgnore
+    public boolean isFinished() {
+        return state.equals(State.DONE) || state.equals(State.FAILED);
+    }
+
+    /**
+     * Returns the message of the job.
+     *
+     * @return A message, or null.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Sets the message of the job.
+     *
+     * @param message a message
+     */
+    protected void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Returns the number of parsed items.
+     *
+     * @return A number of items.
+     */
+    public long getParsed() {
+        return parsed.get();
+    }
+
+    /**
+     * Adds to the number of parsed items.
+     *
+     * @param count number of items
+     */
+    public void addParsed(long count) {
+        parsed.addAndGet(count);
+    }
+
+    /**
+     * Returns the number of hashed items.
+     *
+     * @return A number of items.
+     */
+    public long getHashed() {
+        return hashed.get();
+    }
+
+    /**
+     * Adds to the number of hashed items.
+     *
+     * @param count number of items
+     */
+    public void addHashed(long count) {
+        hashed.addAndGet(count);
+    }
+
+    /**
+     * Returns the number of persisted items.
+     *
+     * @return A number of items.
+     */
+    public long getPersisted() {
+        return persisted.get();
+    }
+
+    /**
+     * Adds to the number of persisted items.
+     *
+     * @param count number of items
+     */
+    public void addPersisted(long count) {
+        persisted.addAndGet(count);
+    }
+
+    /**
+     * Returns the number of matched items.
+     *
+     * @return A number of items.
+     */
+    public long getMatched() {
+        return matched.get();
+    }
+
+    /**
+     * Adds to the number of matched items.
+     *
+     * @param count number of items
+     */
+    public void addMatched(long count) {
+        matched.addAndGet(count);
+    }
+}
@@ -0,0 +1,217 @@
+package lemming.job;
+
+import lemming.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server-wide registry of background jobs.
+ * <p>
+ * Jobs are run by a bounded pool of threads, so that at most a configured number of jobs run at the same time.
+ * Further jobs wait in a bounded queue. Jobs of the application, which run for the lifetime of the application, are
+ * started on threads of their own instead, so that they never hold up jobs of users. Finished jobs are kept for some
+ * time, so that their results can still be requested after a page reload.
+ */
+public abstract class JobRegistry {
+    /**
+     * Logger of the job registry.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(JobRegistry.class);
+
+    /**
+     * Maximum number of waiting jobs.
+     */
+    private static final int QUEUE_CAPACITY = 32;
+
+    /**
+     * Time in milliseconds finished jobs are kept.
+     */
+    private static final long RETENTION_TIME = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Maximum number of jobs running at the same time.
+     */
+    private static int concurrency = 2;
+
+    /**
+     * Registered jobs by ID.
+     */
+    private static final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Executor running jobs.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Executor running jobs of the application.
+     */
+    private static ExecutorService applicationExecutor;
+
+    /**
+     * Returns the maximum number of jobs running at the same time.
+     *
+     * @return A number of jobs.
+     */
+    public static synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximum number of jobs running at the same time. Takes effect for jobs submitted afterwards.
+     *
+     * @param concurrency a number of jobs
+     */
+    public static synchronized void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Job concurrency must be positive.");
+        }
+
+        if (JobRegistry.concurrency != concurrency) {
+            JobRegistry.concurrency = concurrency;
+
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Registers a job and queues it for execution. A job which can’t be queued is marked as failed.
+     *
+     * @param job a job
+     * @return The registered job.
+     */
+    public static synchronized Job submit(Job job) {
+        removeExpiredJobs();
+        jobs.put(job.getId(), job);
+
+        try {
+            getExecutor().execute(job);
+        } catch (RejectedExecutionException e) {
+            logger.error("Job " + job.getId() + " was rejected.", e);
+            job.reject("Too many jobs are waiting.");
+        }
+
+        return job;
+    }
+
+    /**
+     * Registers a job of the application and starts it on a thread of its own, outside of the bounded pool. The ID
+     * of the job is logged, so that administrators can look it up.
+     *
+     * @param job a job of the application
+     * @return The registered job.
+     */
+    public static synchronized Job start(Job job) {
+        removeExpiredJobs();
+        jobs.put(job.getId(), job);
+
+        if (applicationExecutor == null) {
+            applicationExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "application-job");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        applicationExecutor.execute(job);
+        logger.info("Job " + job.getId() + " (" + job.getName() + ") was started.");
+        return job;
+    }
+
+    /**
+     * Returns a registered job.
+     *
+     * @param id ID of a job
+     * @return A job, or null if no job with this ID is registered.
+     */
+    public static Job get(String id) {
+        return (id != null) ? jobs.get(id) : null;
+    }
+
+    /**
+     * Returns the registered jobs of a user.
+     *
+     * @param user a user
+     * @param finished true to include finished jobs; false otherwise
+     * @return A list of jobs in order of creation.
+     */
+    public static List<Job> findByUser(User user, boolean finished) {
+        List<Job> userJobs = new ArrayList<>();
+
+        for (Job job : jobs.values()) {
+            if (user.getId().equals(job.getUserId()) && (finished || !job.isFinished())) {
+                userJobs.add(job);
+            }
+        }
+
+        userJobs.sort(Comparator.comparingLong(Job::getCreated));
+        return userJobs;
+    }
+
+    /**
+     * Stops all jobs and clears the registry.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        if (applicationExecutor != null) {
+            applicationExecutor.shutdownNow();
+            applicationExecutor = null;
+        }
+
+        jobs.clear();
+    }
+
+    /**
+     * Removes finished jobs which are older than the retention time.
+     */
+    private static void removeExpiredJobs() {
+        long now = System.currentTimeMillis();
+        Iterator<Job> iterator = jobs.values().iterator();
+
+        while (iterator.hasNext()) {
+            Long finished = iterator.next().getFinished();
+
+            if (finished != null && now - finished > RETENTION_TIME) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the executor running jobs.
+     *
+     * @return An executor service.
+     */
+    private static ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "job");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return executor;
+    }
+}
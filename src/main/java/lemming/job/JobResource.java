@@ -0,0 +1,47 @@
+package lemming.job;
+
+import lemming.auth.UserRoles;
+import lemming.user.User;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+
+/**
+ * A resource for the state of background jobs.
+ */
+@Path("jobs")
+@RolesAllowed({"STUDENT", "USER", "ADMIN"})
+public class JobResource {
+    /**
+     * Returns the state and progress of a job as JSON. Jobs of other users are only visible to administrators.
+     *
+     * @param id ID of a job
+     * @param securityContext security context of the request
+     * @return A JSON response.
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@PathParam("id") String id, @Context SecurityContext securityContext) {
+        Job job = JobRegistry.get(id);
+        User user = (User) securityContext.getUserPrincipal();
+
+        if (job == null || user == null || !(user.getId().equals(job.getUserId()) ||
+                securityContext.isUserInRole(UserRoles.Role.ADMIN.name()))) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        cacheControl.setNoStore(true);
+        return Response.ok(job).type(MediaType.APPLICATION_JSON).cacheControl(cacheControl).build();
+    }
+}
@@ -24,6 +24,7 @@ import java.util.UUID;
 @OptimisticLocking(type = OptimisticLockType.VERSION)
 @Table(name = "lemma", indexes = {
         @Index(columnList = "uuid", unique = true),
+        @Index(columnList = "modified"),
         @Index(columnList = "name, replacement_string, pos_string, source, reference")})
 public class Lemma extends DatedEntity implements Serializable {
     /**
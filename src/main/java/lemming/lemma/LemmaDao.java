@@ -4,6 +4,7 @@ import lemming.context.Context;
 import lemming.data.EntityManagerListener;
 import lemming.data.GenericDao;
 import lemming.data.Source;
+import lemming.data.Tombstone;
 import lemming.pos.Pos;
 import lemming.user.User;
 import org.hibernate.StaleObjectStateException;
@@ -26,6 +27,14 @@ public class LemmaDao extends GenericDao<Lemma> implements ILemmaDao {
         super();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Tombstone.Type getTombstoneType() {
+        return Tombstone.Type.LEMMA;
+    }
+
     /**
      * {@inheritDoc}
      */
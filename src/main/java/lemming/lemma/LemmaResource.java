@@ -5,23 +5,37 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import lemming.data.ChangeCursor;
 import lemming.data.EntityManagerListener;
+import lemming.data.Tombstone;
+import lemming.resource.ExportCache;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.hibernate.query.Query;
 
 import javax.annotation.security.RolesAllowed;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityTransaction;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -31,83 +45,190 @@ import java.util.List;
 @RolesAllowed({"STUDENT", "USER", "ADMIN"})
 public class LemmaResource {
     /**
-     * Returns a chunked JSON response.
+     * Returns a JSON response. With an instant, only lemmata changed since the instant and tombstones of lemmata
+     * deleted or replaced since the instant are exported. A full export is served from the export cache, or as
+     * chunked JSON response while no export is cached.
      *
-     * @return A JSON response.
+     * @param since an ISO 8601 instant, or null for a full export
+     * @param request the request, evaluated for conditional requests
+     * @param acceptEncoding accepted content encodings, or null
+     * @return A JSON response, or a bad request response if the instant is invalid.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response get() {
-        EntityManager entityManager1 = EntityManagerListener.createEntityManager();
-        EntityTransaction transaction = null;
-
-        try {
-            StatelessSession session = entityManager1.unwrap(Session.class).getSessionFactory().openStatelessSession();
-            transaction = session.beginTransaction();
-            org.hibernate.Query query = session.createQuery("SELECT l.id FROM Lemma l ORDER BY l.name");
-            query.setReadOnly(true).setCacheable(false).setFetchSize(Integer.MIN_VALUE);
-            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
-            StreamingOutput streamingOutput = outputStream -> {
+    public Response get(@QueryParam("since") String since, @Context Request request,
+                        @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        if (since != null) {
+            Instant sinceInstant;
+
+            try {
+                sinceInstant = Instant.parse(since);
+            } catch (DateTimeParseException e) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+
+            return Response.ok(getStreamingOutput(sinceInstant)).type(MediaType.APPLICATION_JSON)
+                    .header("Content-Disposition", "attachment; filename=\"lemmata-changes.json\"").build();
+        }
+
+        return ExportCache.getResponse(ExportCache.Artifact.LEMMAS, request, acceptEncoding);
+    }
+
+    /**
+     * Returns a streaming output which writes all lemmata as JSON.
+     *
+     * @return A streaming output.
+     */
+    public static StreamingOutput getStreamingOutput() {
+        return getStreamingOutput(null);
+    }
+
+    /**
+     * Returns a streaming output which writes lemmata as JSON. With an instant, lemmata modified at or after the
+     * instant are written as JSON object, together with the timestamp and the cursor of the export, and tombstones of
+     * lemmata deleted or replaced at or after the instant. The cursor is the instant to pass to the next incremental
+     * export, see {@link ChangeCursor}. The session is opened when the output is written and closed afterwards, also if
+     * writing fails.
+     *
+     * @param since an instant, or null to write all lemmata as JSON array
+     * @return A streaming output.
+     */
+    public static StreamingOutput getStreamingOutput(Instant since) {
+        return outputStream -> {
+            EntityManager entityManager1 = EntityManagerListener.createEntityManager();
+            EntityManager entityManager2 = null;
+            StatelessSession session = null;
+            Transaction transaction = null;
+            Instant timestamp = Instant.now();
+
+            try {
+                session = entityManager1.unwrap(Session.class).getSessionFactory().openStatelessSession();
+                transaction = session.beginTransaction();
+                org.hibernate.Query query;
+
+                if (since != null) {
+                    query = session.createQuery("SELECT l.id FROM Lemma l WHERE l.modified >= :since " +
+                            "ORDER BY l.name").setParameter("since", Timestamp.from(since));
+                } else {
+                    query = session.createQuery("SELECT l.id FROM Lemma l ORDER BY l.name");
+                }
+
+                query.setReadOnly(true).setCacheable(false).setFetchSize(Integer.MIN_VALUE);
+                ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
                 JsonGenerator jsonGenerator = new ObjectMapper().configure(MapperFeature.USE_ANNOTATIONS, true)
                         .enable(SerializationFeature.INDENT_OUTPUT)
                         .getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+
+                if (since != null) {
+                    jsonGenerator.writeStartObject();
+                    jsonGenerator.writeStringField("since", DateTimeFormatter.ISO_INSTANT.format(since));
+                    jsonGenerator.writeStringField("timestamp", DateTimeFormatter.ISO_INSTANT.format(timestamp));
+                    jsonGenerator.writeStringField("cursor",
+                            DateTimeFormatter.ISO_INSTANT.format(ChangeCursor.getCursor(timestamp)));
+                    jsonGenerator.writeFieldName("lemmas");
+                }
+
                 jsonGenerator.writeStartArray();
-                EntityManager entityManager2 = EntityManagerListener.createEntityManager();
+                entityManager2 = EntityManagerListener.createEntityManager();
                 List<Integer> idList = new ArrayList<>(1000);
 
                 while (results.next()) {
                     idList.add(results.getInteger(0));
 
                     if (idList.size() == 1000) {
-                        List<Lemma> lemmaList = entityManager2
-                                .createQuery("SELECT l FROM Lemma l LEFT JOIN FETCH l.replacement " +
-                                        "LEFT JOIN FETCH l.pos LEFT JOIN FETCH l.user WHERE l.replacement IS NULL " +
-                                        "AND l.id IN (:ids) ORDER BY l.name", Lemma.class)
-                                .setParameter("ids", idList).getResultList();
-
-                        for (Lemma lemma : lemmaList) {
-                            jsonGenerator.writeObject(lemma);
-                            jsonGenerator.flush();
-                        }
-
+                        writeLemmas(jsonGenerator, entityManager2, idList);
                         idList.clear();
                         entityManager2.clear();
                     }
                 }
 
                 if (!idList.isEmpty()) {
-                    List<Lemma> lemmaList = entityManager2
-                            .createQuery("SELECT l FROM Lemma l LEFT JOIN FETCH l.replacement " +
-                                    "LEFT JOIN FETCH l.pos LEFT JOIN FETCH l.user WHERE l.replacement IS NULL " +
-                                    "AND l.id IN (:ids) ORDER BY l.name", Lemma.class)
-                            .setParameter("ids", idList).getResultList();
-
-                    for (Lemma lemma : lemmaList) {
-                        jsonGenerator.writeObject(lemma);
-                        jsonGenerator.flush();
-                    }
+                    writeLemmas(jsonGenerator, entityManager2, idList);
                 }
 
                 jsonGenerator.writeEndArray();
+
+                if (since != null) {
+                    jsonGenerator.writeArrayFieldStart("deleted");
+
+                    for (Tombstone tombstone : findTombstones(entityManager2, Timestamp.from(since))) {
+                        jsonGenerator.writeObject(tombstone);
+                    }
+
+                    jsonGenerator.writeEndArray();
+                    jsonGenerator.writeEndObject();
+                }
+
                 jsonGenerator.flush();
                 jsonGenerator.close();
-                entityManager2.close();
                 results.close();
-                session.getTransaction().commit();
-            };
+                transaction.commit();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
 
-            return Response.ok(streamingOutput).type(MediaType.APPLICATION_JSON)
-                    .header("Content-Disposition", "attachment; filename=\"lemmata.json\"").build();
-        } catch (RuntimeException e) {
-            e.printStackTrace();
+                if (transaction != null && transaction.isActive()) {
+                    transaction.rollback();
+                }
+
+                throw e;
+            } finally {
+                if (entityManager2 != null) {
+                    entityManager2.close();
+                }
 
-            if (transaction != null && transaction.isActive()) {
-                transaction.rollback();
+                if (session != null) {
+                    session.close();
+                }
+
+                entityManager1.close();
             }
+        };
+    }
 
-            throw e;
-        } finally {
-            entityManager1.close();
+    /**
+     * Writes lemmata which aren’t replaced as JSON.
+     *
+     * @param jsonGenerator a JSON generator
+     * @param entityManager an entity manager
+     * @param ids IDs of lemmata
+     * @throws IOException if the lemmata can’t be written
+     */
+    private static void writeLemmas(JsonGenerator jsonGenerator, EntityManager entityManager, List<Integer> ids)
+            throws IOException {
+        List<Lemma> lemmaList = entityManager.createQuery("SELECT l FROM Lemma l LEFT JOIN FETCH l.replacement " +
+                "LEFT JOIN FETCH l.pos LEFT JOIN FETCH l.user WHERE l.replacement IS NULL " +
+                "AND l.id IN (:ids) ORDER BY l.name", Lemma.class)
+                .setParameter("ids", ids).getResultList();
+
+        for (Lemma lemma : lemmaList) {
+            jsonGenerator.writeObject(lemma);
+            jsonGenerator.flush();
+        }
+    }
+
+    /**
+     * Returns tombstones of lemmata deleted at or after a timestamp. Lemmata replaced at or after the timestamp are
+     * returned as tombstones too, as replaced lemmata aren’t exported.
+     *
+     * @param entityManager an entity manager
+     * @param since a timestamp
+     * @return A list of tombstones ordered by deletion.
+     */
+    private static List<Tombstone> findTombstones(EntityManager entityManager, Timestamp since) {
+        List<Tombstone> tombstones = entityManager.createQuery("SELECT t FROM Tombstone t WHERE t.type = :type " +
+                "AND t.deleted >= :since ORDER BY t.deleted, t.id", Tombstone.class)
+                .setParameter("type", Tombstone.Type.LEMMA).setParameter("since", since).getResultList();
+        List<Object[]> replacedLemmas = entityManager.createQuery("SELECT l.id, l.modified FROM Lemma l " +
+                "WHERE l.replacement IS NOT NULL AND l.modified >= :since", Object[].class)
+                .setParameter("since", since).getResultList();
+        List<Tombstone> allTombstones = new ArrayList<>(tombstones);
+
+        for (Object[] replacedLemma : replacedLemmas) {
+            allTombstones.add(new Tombstone(Tombstone.Type.LEMMA, (Integer) replacedLemma[0],
+                    (Timestamp) replacedLemma[1]));
         }
+
+        allTombstones.sort(Comparator.comparing(Tombstone::getDeleted));
+        return allTombstones;
     }
 }
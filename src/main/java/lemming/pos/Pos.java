@@ -22,7 +22,8 @@ import java.util.UUID;
 @OptimisticLocking(type = OptimisticLockType.VERSION)
 @Table(name = "pos", indexes = {
         @Index(columnList = "uuid", unique = true),
-        @Index(columnList = "name, source")})
+        @Index(columnList = "name, source"),
+        @Index(columnList = "modified")})
 public class Pos extends DatedEntity implements Serializable {
     /**
      * ID associated with a part of speech.
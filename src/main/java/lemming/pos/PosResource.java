@@ -6,21 +6,27 @@ import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import lemming.data.EntityManagerListener;
+import lemming.resource.ExportCache;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.hibernate.query.Query;
 
 import javax.annotation.security.RolesAllowed;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityTransaction;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
 
 /**
  * A resource for part of speech data.
@@ -29,23 +35,36 @@ import javax.ws.rs.core.StreamingOutput;
 @RolesAllowed({"STUDENT", "USER", "ADMIN"})
 public class PosResource {
     /**
-     * Returns a chunked JSON response.
+     * Returns a JSON response from the export cache, or a chunked JSON response while no export is cached.
      *
+     * @param request the request, evaluated for conditional requests
+     * @param acceptEncoding accepted content encodings, or null
      * @return A JSON response.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response get() {
-        EntityManager entityManager = EntityManagerListener.createEntityManager();
-        EntityTransaction transaction = null;
+    public Response get(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        return ExportCache.getResponse(ExportCache.Artifact.POS, request, acceptEncoding);
+    }
+
+    /**
+     * Returns a streaming output which writes all parts of speech as JSON. The session is opened when the output is
+     * written and closed afterwards, also if writing fails.
+     *
+     * @return A streaming output.
+     */
+    public static StreamingOutput getStreamingOutput() {
+        return outputStream -> {
+            EntityManager entityManager = EntityManagerListener.createEntityManager();
+            StatelessSession session = null;
+            Transaction transaction = null;
 
-        try {
-            StatelessSession session = entityManager.unwrap(Session.class).getSessionFactory().openStatelessSession();
-            transaction = session.beginTransaction();
-            org.hibernate.Query query = session.createQuery("FROM Pos ORDER BY name");
-            query.setReadOnly(true).setCacheable(false).setFetchSize(Integer.MIN_VALUE);
-            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
-            StreamingOutput streamingOutput = outputStream -> {
+            try {
+                session = entityManager.unwrap(Session.class).getSessionFactory().openStatelessSession();
+                transaction = session.beginTransaction();
+                org.hibernate.Query query = session.createQuery("FROM Pos ORDER BY name");
+                query.setReadOnly(true).setCacheable(false).setFetchSize(Integer.MIN_VALUE);
+                ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
                 JsonGenerator jsonGenerator = new ObjectMapper().configure(MapperFeature.USE_ANNOTATIONS, true)
                         .enable(SerializationFeature.INDENT_OUTPUT)
                         .getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
@@ -60,21 +79,22 @@ public class PosResource {
                 jsonGenerator.flush();
                 jsonGenerator.close();
                 results.close();
-                session.getTransaction().commit();
-            };
+                transaction.commit();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
 
-            return Response.ok(streamingOutput).type(MediaType.APPLICATION_JSON)
-                    .header("Content-Disposition", "attachment; filename=\"pos.json\"").build();
-        } catch (RuntimeException e) {
-            e.printStackTrace();
+                if (transaction != null && transaction.isActive()) {
+                    transaction.rollback();
+                }
 
-            if (transaction != null && transaction.isActive()) {
-                transaction.rollback();
-            }
+                throw e;
+            } finally {
+                if (session != null) {
+                    session.close();
+                }
 
-            throw e;
-        } finally {
-            entityManager.close();
-        }
+                entityManager.close();
+            }
+        };
     }
 }
@@ -0,0 +1,554 @@
+package lemming.resource;
+
+import lemming.context.ContextExporter;
+import lemming.data.EntityManagerListener;
+import lemming.lemma.LemmaResource;
+import lemming.pos.PosResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of export artifacts which are stored gzip-compressed on disk.
+ * <p>
+ * Every artifact is keyed by a data version, which is derived from indexed values of each table the artifact is built
+ * from: the greatest ID, the greatest modification timestamp and a delete counter. Artifacts are served
+ * with their data version as ETag, so that clients can send conditional requests. A background thread checks the
+ * data versions periodically and regenerates outdated artifacts, at most once per minimum age. Until then, an
+ * outdated artifact is served with its own ETag. Artifacts are maintained once they have been requested. While an
+ * artifact is not generated yet, it is streamed from the database.
+ */
+public abstract class ExportCache {
+    /**
+     * An export artifact.
+     */
+    public enum Artifact {
+        CONTEXTS("contexts.json", "text/json", () -> new ContextExporter(false)::writeJson,
+                "context", "comment", "lemma", "pos", "user"),
+        CONTEXTS_XML("contexts.xml", MediaType.TEXT_XML, () -> new ContextExporter(false)::writeXml,
+                "context", "lemma", "pos"),
+        LEMMAS("lemmata.json", MediaType.APPLICATION_JSON, LemmaResource::getStreamingOutput,
+                "lemma", "pos", "user"),
+        POS("pos.json", MediaType.APPLICATION_JSON, PosResource::getStreamingOutput, "pos");
+
+        /**
+         * File name of the artifact.
+         */
+        private final String fileName;
+
+        /**
+         * Media type of the artifact.
+         */
+        private final String mediaType;
+
+        /**
+         * Supplier of a streaming output which writes the artifact.
+         */
+        private final Supplier<StreamingOutput> output;
+
+        /**
+         * Tables the artifact is built from.
+         */
+        private final String[] tables;
+
+        /**
+         * Creates an artifact.
+         *
+         * @param fileName file name of the artifact
+         * @param mediaType media type of the artifact
+         * @param output supplier of a streaming output which writes the artifact
+         * @param tables tables the artifact is built from
+         */
+        Artifact(String fileName, String mediaType, Supplier<StreamingOutput> output, String... tables) {
+            this.fileName = fileName;
+            this.mediaType = mediaType;
+            this.output = output;
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * Tables whose deletes are recorded by tombstones.
+     */
+    private static final Set<String> TOMBSTONE_TABLES = new HashSet<>(Arrays.asList("context", "lemma"));
+
+    /**
+     * Logger of the export cache.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ExportCache.class);
+
+    /**
+     * Interval in milliseconds between checks of data versions.
+     */
+    private static final long CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Minimum age in milliseconds of an artifact before it is regenerated.
+     */
+    private static final long MINIMUM_AGE = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Suffix of artifact files.
+     */
+    private static final String SUFFIX = ".gz";
+
+    /**
+     * Current entries by artifact.
+     */
+    private static final Map<Artifact, Entry> entries = new EnumMap<>(Artifact.class);
+
+    /**
+     * Superseded entries by artifact, whose files are deleted when they are superseded again.
+     */
+    private static final Map<Artifact, Entry> previousEntries = new EnumMap<>(Artifact.class);
+
+    /**
+     * Artifacts which are maintained.
+     */
+    private static final Set<Artifact> requestedArtifacts = EnumSet.noneOf(Artifact.class);
+
+    /**
+     * Directory of artifact files, or null if the cache isn’t started.
+     */
+    private static File directory;
+
+    /**
+     * Executor checking data versions and generating artifacts.
+     */
+    private static ScheduledExecutorService executor;
+
+    /**
+     * Starts the cache. Artifact files left in the directory by a previous start are adopted and checked later.
+     *
+     * @param directory directory of artifact files, or null to stream all exports from the database
+     */
+    public static synchronized void start(File directory) {
+        if (directory == null || executor != null) {
+            return;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.error("Export directory " + directory + " can’t be created.");
+            return;
+        }
+
+        ExportCache.directory = directory;
+        adoptFiles();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "export cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(ExportCache::refresh, CHECK_INTERVAL, CHECK_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the cache. Artifact files are kept for the next start.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        entries.clear();
+        previousEntries.clear();
+        requestedArtifacts.clear();
+        directory = null;
+    }
+
+    /**
+     * Returns a response with a cached artifact, or a not modified response if the client has the current artifact.
+     * While an artifact is not generated yet, a chunked response streamed from the database is returned and the
+     * artifact is generated in the background.
+     *
+     * @param artifact an artifact
+     * @param request the request, evaluated for conditional requests
+     * @param acceptEncoding accepted content encodings, or null
+     * @return A response.
+     */
+    public static Response getResponse(Artifact artifact, Request request, String acceptEncoding) {
+        Entry entry = get(artifact);
+
+        if (entry == null) {
+            return Response.ok(artifact.output.get()).type(artifact.mediaType)
+                    .header("Content-Disposition", "attachment; filename=\"" + artifact.fileName + "\"").build();
+        }
+
+        EntityTag entityTag = new EntityTag(entry.version, true);
+        Date lastModified = new Date(entry.generated);
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        cacheControl.setPrivate(true);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, entityTag);
+
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+
+        boolean gzip = acceptsGzip(acceptEncoding);
+        StreamingOutput streamingOutput = outputStream -> {
+            try (InputStream inputStream = gzip ? Files.newInputStream(entry.file.toPath()) :
+                    new GZIPInputStream(Files.newInputStream(entry.file.toPath()), 64 * 1024)) {
+                copy(inputStream, outputStream);
+            }
+        };
+        Response.ResponseBuilder builder = Response.ok(streamingOutput).type(artifact.mediaType)
+                .header("Content-Disposition", "attachment; filename=\"" + artifact.fileName + "\"")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .tag(entityTag).lastModified(lastModified).cacheControl(cacheControl);
+
+        if (gzip) {
+            builder.encoding("gzip").header(HttpHeaders.CONTENT_LENGTH, entry.file.length());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the current entry of an artifact and marks the artifact as maintained. Generation is started if the
+     * artifact has no entry yet.
+     *
+     * @param artifact an artifact
+     * @return An entry, or null if the artifact is not generated yet.
+     */
+    private static synchronized Entry get(Artifact artifact) {
+        if (executor == null) {
+            return null;
+        }
+
+        if (requestedArtifacts.add(artifact) && !entries.containsKey(artifact)) {
+            executor.execute(ExportCache::refresh);
+        }
+
+        return entries.get(artifact);
+    }
+
+    /**
+     * Checks the data versions of all maintained artifacts and regenerates outdated artifacts. Runs on the executor
+     * of the cache, so that only one artifact is generated at a time.
+     */
+    private static void refresh() {
+        Set<Artifact> artifacts;
+
+        synchronized (ExportCache.class) {
+            if (requestedArtifacts.isEmpty()) {
+                return;
+            }
+
+            artifacts = EnumSet.copyOf(requestedArtifacts);
+        }
+
+        try {
+            Map<String, String> tableVersions = getTableVersions(artifacts);
+
+            for (Artifact artifact : artifacts) {
+                String version = getVersion(artifact, tableVersions);
+                Entry entry;
+
+                synchronized (ExportCache.class) {
+                    entry = entries.get(artifact);
+                }
+
+                if (entry == null || (!entry.version.equals(version) &&
+                        System.currentTimeMillis() - entry.generated >= MINIMUM_AGE)) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    generate(artifact, version);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Export artifacts can’t be refreshed.", e);
+        }
+    }
+
+    /**
+     * Generates an artifact file and makes it the current entry of the artifact.
+     *
+     * @param artifact an artifact
+     * @param version data version read before generation
+     * @throws IOException if the file can’t be written
+     */
+    private static void generate(Artifact artifact, String version) throws IOException {
+        File directory;
+
+        synchronized (ExportCache.class) {
+            directory = ExportCache.directory;
+        }
+
+        if (directory == null) {
+            return;
+        }
+
+        long started = System.currentTimeMillis();
+        File temporaryFile = new File(directory, artifact.fileName + ".tmp");
+        File file = new File(directory, artifact.fileName + "." + version + SUFFIX);
+
+        try (OutputStream outputStream = new GZIPOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporaryFile.toPath()), 64 * 1024), 64 * 1024)) {
+            artifact.output.get().write(outputStream);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile.toPath());
+            throw e;
+        }
+
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // an artifact is as old as the data it was read from
+        file.setLastModified(started);
+        replace(artifact, new Entry(version, file, started));
+        logger.info("Generated export " + file.getName() + " in " + (System.currentTimeMillis() - started) + " ms.");
+    }
+
+    /**
+     * Makes an entry the current entry of an artifact. The file of the previous entry is kept for downloads which
+     * are still running, and the file superseded before it is deleted.
+     *
+     * @param artifact an artifact
+     * @param entry a new entry
+     */
+    private static synchronized void replace(Artifact artifact, Entry entry) {
+        Entry previousEntry = entries.put(artifact, entry);
+
+        if (previousEntry != null && !previousEntry.file.equals(entry.file)) {
+            Entry supersededEntry = previousEntries.put(artifact, previousEntry);
+
+            if (supersededEntry != null && !supersededEntry.file.equals(entry.file) &&
+                    !supersededEntry.file.delete()) {
+                logger.warn("Export " + supersededEntry.file + " can’t be deleted.");
+            }
+        }
+    }
+
+    /**
+     * Adopts the newest artifact files in the directory as current entries. Their artifacts are maintained, as they
+     * were requested before.
+     */
+    private static void adoptFiles() {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            for (Artifact artifact : Artifact.values()) {
+                String name = file.getName();
+
+                if (name.startsWith(artifact.fileName + ".") && name.endsWith(SUFFIX)) {
+                    String version = name.substring(artifact.fileName.length() + 1,
+                            name.length() - SUFFIX.length());
+                    Entry entry = entries.get(artifact);
+
+                    if (entry == null || entry.generated < file.lastModified()) {
+                        entries.put(artifact, new Entry(version, file, file.lastModified()));
+
+                        if (entry != null && !entry.file.delete()) {
+                            logger.warn("Export " + entry.file + " can’t be deleted.");
+                        }
+                    } else if (!file.delete()) {
+                        logger.warn("Export " + file + " can’t be deleted.");
+                    }
+
+                    requestedArtifacts.add(artifact);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the data version of an artifact.
+     *
+     * @param artifact an artifact
+     * @param tableVersions versions of tables
+     * @return A data version.
+     */
+    private static String getVersion(Artifact artifact, Map<String, String> tableVersions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder version = new StringBuilder();
+
+            for (String table : artifact.tables) {
+                digest.update((table + "=" + tableVersions.get(table) + ";").getBytes(StandardCharsets.UTF_8));
+            }
+
+            for (byte value : Arrays.copyOf(digest.digest(), 8)) {
+                version.append(String.format("%02x", value));
+            }
+
+            return version.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the versions of the tables of some artifacts. A version changes with every insert, update and delete.
+     * <p>
+     * Inserts raise the greatest ID, and updates set the modification timestamp, both of which are read from an
+     * index. As timestamps have a precision of seconds, the number of rows and the sum of entity versions of the
+     * last modified second are added, so that further updates within that second are noticed as well. Deletes from
+     * tables with tombstones raise the greatest tombstone ID. Other tables are small, and their rows are counted.
+     *
+     * @param artifacts some artifacts
+     * @return A map of table versions by table name.
+     */
+    private static Map<String, String> getTableVersions(Set<Artifact> artifacts) {
+        EntityManager entityManager = EntityManagerListener.createEntityManager();
+        EntityTransaction transaction = null;
+
+        try {
+            Map<String, String> tableVersions = new HashMap<>();
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+
+            Object tombstoneId = entityManager.createNativeQuery("SELECT MAX(id) FROM tombstone")
+                    .getSingleResult();
+
+            for (Artifact artifact : artifacts) {
+                for (String table : artifact.tables) {
+                    if (!tableVersions.containsKey(table)) {
+                        Object[] row = (Object[]) entityManager.createNativeQuery("SELECT MAX(id), MAX(modified) " +
+                                "FROM `" + table + "`").getSingleResult();
+                        Object[] lastModified = (row[1] == null) ? new Object[0] : (Object[]) entityManager
+                                .createNativeQuery("SELECT COUNT(*), SUM(version) FROM `" + table + "` " +
+                                        "WHERE modified >= :modified")
+                                .setParameter("modified", row[1]).getSingleResult();
+                        Object deleteCounter = TOMBSTONE_TABLES.contains(table) ? tombstoneId : entityManager
+                                .createNativeQuery("SELECT COUNT(*) FROM `" + table + "`").getSingleResult();
+                        tableVersions.put(table, Arrays.toString(row) + Arrays.toString(lastModified) + "/" +
+                                deleteCounter);
+                    }
+                }
+            }
+
+            transaction.commit();
+            return tableVersions;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Checks if a client accepts gzip-encoded content.
+     *
+     * @param acceptEncoding accepted content encodings, or null
+     * @return True if gzip is accepted; false otherwise.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().toLowerCase().split("\\s*;\\s*");
+
+            if (parameters[0].equals("gzip") || parameters[0].equals("x-gzip")) {
+                for (int i = 1; i < parameters.length; i++) {
+                    if (parameters[i].matches("q\\s*=\\s*0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Copies an input stream to an output stream.
+     *
+     * @param inputStream an input stream
+     * @param outputStream an output stream
+     * @throws IOException if a stream can’t be read or written
+     */
+    private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        outputStream.flush();
+    }
+
+    /**
+     * A generated artifact file.
+     */
+    private static class Entry {
+        /**
+         * Data version of the artifact.
+         */
+        private final String version;
+
+        /**
+         * Gzip-compressed artifact file.
+         */
+        private final File file;
+
+        /**
+         * Time in milliseconds when generation started, rounded down to seconds for HTTP dates.
+         */
+        private final long generated;
+
+        /**
+         * Creates an entry.
+         *
+         * @param version data version of the artifact
+         * @param file gzip-compressed artifact file
+         * @param generated time in milliseconds when generation started
+         */
+        private Entry(String version, File file, long generated) {
+            this.version = version;
+            this.file = file;
+            this.generated = generated - generated % 1000;
+        }
+    }
+}
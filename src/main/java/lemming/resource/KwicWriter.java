@@ -0,0 +1,199 @@
+package lemming.resource;
+
+import lemming.context.Context;
+import lemming.context.ContextType;
+import lemming.context.SpeechType;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+
+/**
+ * A streaming writer of a KWIC index with kwiclist, sublist and item elements.
+ * <p>
+ * Elements are written directly to an XML stream writer. The output factory is shared, so that a writer needs no
+ * setup per request.
+ */
+public class KwicWriter {
+    /**
+     * Output factory shared by all writers.
+     */
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    /**
+     * Writer of the XML stream.
+     */
+    private final XMLStreamWriter streamWriter;
+
+    /**
+     * Creates a KWIC writer.
+     *
+     * @param outputStream stream the index is written to as UTF-8
+     * @throws XMLStreamException if the stream writer can’t be created
+     */
+    public KwicWriter(OutputStream outputStream) throws XMLStreamException {
+        streamWriter = outputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+    }
+
+    /**
+     * Writes the XML declaration and the start tag of element kwiclist.
+     *
+     * @param snapshot timestamp of a snapshot, or null
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    public void writeStartDocument(String snapshot) throws XMLStreamException {
+        streamWriter.writeStartDocument("UTF-8", "1.0");
+        streamWriter.writeCharacters("\n");
+        streamWriter.writeStartElement("kwiclist");
+
+        if (snapshot != null) {
+            streamWriter.writeAttribute("snapshot", snapshot);
+        }
+    }
+
+    /**
+     * Writes the start tag of a sublist.
+     *
+     * @param key key of the sublist
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    public void writeStartSubList(String key) throws XMLStreamException {
+        streamWriter.writeCharacters("\n  ");
+        streamWriter.writeStartElement("sublist");
+        streamWriter.writeAttribute("key", key);
+    }
+
+    /**
+     * Writes a context as item of the current sublist.
+     *
+     * @param context a context with lemma and part of speech
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    public void writeItem(Context context) throws XMLStreamException {
+        String type = getType(context.getType());
+
+        streamWriter.writeCharacters("\n    ");
+        streamWriter.writeStartElement("item");
+
+        if (type != null) {
+            streamWriter.writeAttribute("type", type);
+        }
+
+        streamWriter.writeAttribute("location", context.getLocation());
+        streamWriter.writeAttribute("n", String.valueOf(context.getNumber()));
+        streamWriter.writeAttribute("preceding", context.getPreceding());
+        streamWriter.writeAttribute("following", context.getFollowing());
+
+        if (context.getLemma() != null) {
+            streamWriter.writeAttribute("lemma", context.getLemma().getName());
+
+            if (context.getLemma().getPosString() != null) {
+                streamWriter.writeAttribute("lemmaPos", context.getLemma().getPosString());
+            }
+        }
+
+        if (context.getPos() != null) {
+            streamWriter.writeAttribute("pos", context.getPos().getName());
+        }
+
+        streamWriter.writeAttribute("sp", getSpeech(context.getSpeech()));
+        streamWriter.writeCharacters("\n      ");
+
+        if (context.getInitPunctuation() != null) {
+            writePunctuation(context.getInitPunctuation(), "init");
+        }
+
+        streamWriter.writeStartElement("string");
+        streamWriter.writeCharacters(context.getKeyword());
+        streamWriter.writeEndElement();
+
+        if (context.getEndPunctuation() != null) {
+            writePunctuation(context.getEndPunctuation(), "end");
+        }
+
+        streamWriter.writeCharacters("\n    ");
+        streamWriter.writeEndElement();
+    }
+
+    /**
+     * Writes the end tag of the current sublist.
+     *
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    public void writeEndSubList() throws XMLStreamException {
+        streamWriter.writeCharacters("\n  ");
+        streamWriter.writeEndElement();
+    }
+
+    /**
+     * Writes the end tag of element kwiclist and closes the stream writer. The output stream stays open.
+     *
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    public void writeEndDocument() throws XMLStreamException {
+        streamWriter.writeCharacters("\n");
+        streamWriter.writeEndElement();
+        streamWriter.writeCharacters("\n");
+        streamWriter.writeEndDocument();
+        streamWriter.flush();
+        streamWriter.close();
+    }
+
+    /**
+     * Flushes written elements to the output stream.
+     *
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    public void flush() throws XMLStreamException {
+        streamWriter.flush();
+    }
+
+    /**
+     * Writes a punctuation element.
+     *
+     * @param punctuation value of the punctuation
+     * @param type type of the punctuation
+     * @throws XMLStreamException if the stream can’t be written
+     */
+    private void writePunctuation(String punctuation, String type) throws XMLStreamException {
+        streamWriter.writeStartElement("punctuation");
+        streamWriter.writeAttribute("type", type);
+        streamWriter.writeCharacters(punctuation);
+        streamWriter.writeEndElement();
+    }
+
+    /**
+     * Returns the item type of a context type.
+     *
+     * @param type a context type
+     * @return An item type, or null for contexts without type.
+     */
+    private String getType(ContextType.Type type) {
+        if (type.equals(ContextType.Type.RUBRIC)) {
+            return "rubric_item";
+        } else if (type.equals(ContextType.Type.SEGMENT)) {
+            return "seg_item";
+        } else if (type.equals(ContextType.Type.VERSE)) {
+            return "verse_item";
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the speech attribute value of a speech type.
+     *
+     * @param speech a speech type
+     * @return A speech attribute value.
+     */
+    private String getSpeech(SpeechType.Type speech) {
+        if (speech.equals(SpeechType.Type.DIRECT)) {
+            return "direct";
+        } else if (speech.equals(SpeechType.Type.INDIRECT)) {
+            return "indirect";
+        }
+
+        return "";
+    }
+}
@@ -22,7 +22,8 @@ import java.util.UUID;
 @SelectBeforeUpdate
 @Table(name = "user", indexes = {@Index(columnList = "uuid", unique = true),
         @Index(columnList = "username", unique = true),
-        @Index(columnList = "real_name", unique = true)})
+        @Index(columnList = "real_name", unique = true),
+        @Index(columnList = "modified")})
 public class User extends DatedEntity implements Principal, Serializable {
     /**
      * ID associated with a user.
@@ -0,0 +1,27 @@
+function pollImportJob(jobUrl, container, progressPattern, callbackUrl) {
+    var element = jQuery("<div class=\"alert alert-info\"></div>").appendTo(container);
+
+    function formatProgress(job) {
+        var values = [job.name, job.parsed, job.hashed, job.persisted, job.matched];
+
+        return progressPattern.replace(/\{(\d)\}/g, function (match, index) {
+            return values[index];
+        });
+    }
+
+    function poll() {
+        jQuery.ajax({url: jobUrl, dataType: "json", cache: false}).done(function (job) {
+            if (job.state === "DONE" || job.state === "FAILED") {
+                element.remove();
+                Wicket.Ajax.get({u: callbackUrl, ep: {jobId: job.id}});
+            } else {
+                element.text(formatProgress(job));
+                setTimeout(poll, 1000);
+            }
+        }).fail(function () {
+            element.remove();
+        });
+    }
+
+    poll();
+}
@@ -0,0 +1,95 @@
+package lemming.context.inbound;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the monotone alignment of distance matrices.
+ */
+public class MonotoneAlignmentTest {
+    /**
+     * Checks that one close match beats two worse matches which cross it, even if the maximum distance of a
+     * permitted match is much greater than the largest distance in the matrix.
+     */
+    @Test
+    public void testCloseMatchBeatsCrossingMatches() {
+        int[][] matrix = {{5, 0}, {5, 5}};
+
+        assertArrayEquals(new int[]{1, -1}, align(matrix, 20));
+    }
+
+    /**
+     * Checks that alignments of random matrices are monotone and have the greatest total weight, with weights
+     * computed from the largest distance in the matrix.
+     */
+    @Test
+    public void testAlignmentIsOptimal() {
+        Random random = new Random(42);
+
+        for (int run = 0; run < 500; run++) {
+            int[][] matrix = new int[1 + random.nextInt(6)][1 + random.nextInt(6)];
+            int largestDistance = 0;
+
+            for (int[] row : matrix) {
+                for (int column = 0; column < row.length; column++) {
+                    row[column] = random.nextInt(10);
+                    largestDistance = Math.max(largestDistance, row[column]);
+                }
+            }
+
+            int[] matches = align(matrix, 100);
+            long weight = 0L;
+            int lastColumn = -1;
+
+            for (int row = 0; row < matches.length; row++) {
+                if (matches[row] >= 0) {
+                    assertTrue(matches[row] > lastColumn);
+                    lastColumn = matches[row];
+                    weight += largestDistance - matrix[row][matches[row]] + 1;
+                }
+            }
+
+            assertEquals(getBestWeight(matrix, largestDistance, 0, 0), weight);
+        }
+    }
+
+    /**
+     * Aligns a distance matrix.
+     *
+     * @param matrix a distance matrix
+     * @param maxDistance maximum distance of a permitted match
+     * @return An array with the matched column for each row, or -1 if a row is unmatched.
+     */
+    private static int[] align(int[][] matrix, int maxDistance) {
+        return MonotoneAlignment.align((rowFrom, rowTo, columnFrom, columnTo, block) -> {
+            for (int row = rowFrom; row < rowTo; row++) {
+                System.arraycopy(matrix[row], columnFrom, block[row - rowFrom], 0, columnTo - columnFrom);
+            }
+        }, matrix.length, matrix[0].length, maxDistance);
+    }
+
+    /**
+     * Returns the greatest total weight of a monotone matching by exhaustive search.
+     *
+     * @param matrix a distance matrix
+     * @param largestDistance largest distance in the matrix
+     * @param row first row to match
+     * @param column first column to match
+     * @return A total weight.
+     */
+    private static long getBestWeight(int[][] matrix, int largestDistance, int row, int column) {
+        if (row == matrix.length || column == matrix[0].length) {
+            return 0L;
+        }
+
+        long best = Math.max(getBestWeight(matrix, largestDistance, row + 1, column),
+                getBestWeight(matrix, largestDistance, row, column + 1));
+        long weight = largestDistance - matrix[row][column] + 1;
+        return Math.max(best, weight + getBestWeight(matrix, largestDistance, row + 1, column + 1));
+    }
+}